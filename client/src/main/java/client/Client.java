@@ -1,12 +1,10 @@
 package client;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.*;
-import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import collection.HumanObservableManager;
 import commands.ClientCommandManager;
@@ -24,12 +22,14 @@ import static common.io.ConsoleOutputter.printErr;
  */
 
 public class Client extends Thread implements SenderReceiver {
-    private SocketAddress address;
+    private InetSocketAddress address;
     private InetSocketAddress host;
-    private DatagramSocket socket;
-    private DatagramSocket broadcastSocket;
+    private TransportType transportType;
+    private Transport transport;
+    private Transport broadcastTransport;
     public final int MAX_TIME_OUT = 500;
     public final int MAX_ATTEMPTS = 3;
+    public final int HEARTBEAT_INTERVAL = 10_000;
     private User user;
     private User attempt;
     private boolean running;
@@ -44,26 +44,38 @@ public class Client extends Thread implements SenderReceiver {
     }
     private boolean connected;
     private HumanObservableManager collectionManager;
+    private AtomicLong nextRequestId;
+    private volatile long lastRequestId;
+    private volatile long revision;
+    private volatile long resyncRequested;
+    private ScheduledExecutorService heartbeat;
 
     /**
      *  .
      * @param addr
      * @param p
+     * @param type
      * @throws ConnectionException
      */
 
-    private void init(String addr, int p) throws ConnectionException {
+    private void init(String addr, int p, TransportType type) throws ConnectionException {
+        transportType = type;
         connect(addr, p);
         running = true;
         connected = false;
         authSuccess = false;
+        nextRequestId = new AtomicLong();
         collectionManager = new HumanObservableManager();
         commandManager = new ClientCommandManager(this);
         setName("  .");
     }
 
     public Client(String addr, int p) throws ConnectionException {
-        init(addr, p);
+        this(addr, p, TransportType.UDP);
+    }
+
+    public Client(String addr, int p, TransportType type) throws ConnectionException {
+        init(addr, p, type);
     }
 
     public void setUser(User usr) {
@@ -97,14 +109,9 @@ public class Client extends Thread implements SenderReceiver {
         } catch (IllegalArgumentException e) {
             throw new InvalidPortException();
         }
-        try {
-            socket = new DatagramSocket();
-            broadcastSocket = new DatagramSocket();
-            host = new InetSocketAddress(InetAddress.getByName("localhost"), broadcastSocket.getLocalPort());
-            socket.setSoTimeout(MAX_TIME_OUT);
-        } catch (IOException e) {
-            throw new ConnectionException("   ");
-        }
+        transport = transportType.connect(address, MAX_TIME_OUT);
+        broadcastTransport = transportType.connect(address, MAX_TIME_OUT);
+        host = broadcastTransport.getLocalAddress();
     }
 
     /**
@@ -114,17 +121,10 @@ public class Client extends Thread implements SenderReceiver {
      */
 
     public void send(Request request) throws ConnectionException {
-        try {
-            request.setBroadcastAddress(host);
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(BUFFER_SIZE);
-            ObjectOutputStream objOutput = new ObjectOutputStream(byteArrayOutputStream);
-            objOutput.writeObject(request);
-            DatagramPacket requestPacket = new DatagramPacket(byteArrayOutputStream.toByteArray(), byteArrayOutputStream.size(), address);
-            socket.send(requestPacket);
-            byteArrayOutputStream.close();
-        } catch (IOException e) {
-            throw new ConnectionException("-      ");
-        }
+        request.setBroadcastAddress(host);
+        request.setId(nextRequestId.incrementAndGet());
+        lastRequestId = request.getId();
+        transport.send(MessageCodec.encode(request));
     }
 
     /**
@@ -136,34 +136,36 @@ public class Client extends Thread implements SenderReceiver {
 
     public Response receive() throws ConnectionException, InvalidDataException {
         connected = false;
-        try {
-            socket.setSoTimeout(MAX_TIME_OUT);
-        } catch (SocketException ignored) {
-
-        }
-        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
-        DatagramPacket receivePacket = new DatagramPacket(bytes.array(), bytes.array().length);
-        try {
-            socket.receive(receivePacket);
-        } catch (SocketTimeoutException e) {
-            for (int attempts = MAX_ATTEMPTS; attempts > 0; attempts--) {
-                try {
-                    socket.receive(receivePacket);
-                    break;
-                } catch (IOException ignored) {
-                }
+        Response response = receiveReply();
+        long backoff = MAX_TIME_OUT;
+        for (int attempts = MAX_ATTEMPTS; response.getStatus() == Response.Status.BUSY && attempts > 0; attempts--) {
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
             }
-            throw new ConnectionTimeoutException();
-        } catch (IOException e) {
-            throw new ConnectionException("-      ");
+            transport.retransmit();
+            backoff *= 2;
+            response = receiveReply();
         }
         connected = true;
-        try {
-            ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.array()));
-            return (Response) objectInputStream.readObject();
-        } catch (ClassNotFoundException | ClassCastException | IOException e) {
-            throw new InvalidReceivedDataException();
+        return response;
+    }
+
+    /**
+     *    ;   
+     * @return
+     * @throws ConnectionException
+     * @throws InvalidDataException
+     */
+
+    private Response receiveReply() throws ConnectionException, InvalidDataException {
+        Response response = decode(transport.receive(MAX_ATTEMPTS));
+        while (response.getRequestId() != lastRequestId) {
+            print("     #" + response.getRequestId());
+            response = decode(transport.receive(MAX_ATTEMPTS));
         }
+        return response;
     }
 
     /**
@@ -173,24 +175,70 @@ public class Client extends Thread implements SenderReceiver {
      * @throws InvalidDataException
      */
     private Response receiveBroadcast() throws ConnectionException, InvalidDataException{
+        Response response = decode(broadcastTransport.receive(-1));
+        connected = true;
+        return response;
+    }
+
+    private Response decode(byte[] message) throws InvalidDataException {
+        return MessageCodec.decodeResponse(message, message.length);
+    }
+
+    /**
+     *  ,   ,     .
+     *        .
+     */
+
+    private void sendHeartbeat() {
         try {
-            broadcastSocket.setSoTimeout(0);
-        } catch (SocketException ignored) {
+            broadcastTransport.post(MessageCodec.encode(new CommandMsg().setStatus(Request.Status.HEARTBEAT).setBroadcastAddress(host)));
+        } catch (ConnectionException ignored) {
+        }
+    }
+
+    /**
+     *   HELLO:    ,    
+     * @param response
+     */
+
+    private void applySnapshot(Response response) {
+        if (response.getStatus() != Response.Status.COLLECTION) return;
+        if (response.getCollectionOperation() == CollectionOperation.ADD) collectionManager.clear();
+        collectionManager.applyChanges(response);
+        revision = response.getRevision();
+    }
 
+    /**
+     *  ,     ;     
+     * @param response
+     */
+
+    private void applyBroadcast(Response response) {
+        if (response.getRevision() == 0) {
+            collectionManager.applyChanges(response);
+            return;
         }
-        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
-        DatagramPacket receivePacket = new DatagramPacket(bytes.array(), bytes.array().length);
-        try {
-            broadcastSocket.receive(receivePacket);
-        } catch (IOException e) {
-            throw new ConnectionException("-      ");
+        if (response.getBaseRevision() > revision) {
+            requestResync();
+            return;
         }
-        connected=true;
+        if (response.getRevision() <= revision) return;
+        collectionManager.applyChanges(response);
+        revision = response.getRevision();
+    }
+
+    /**
+     *  HELLO   :    ,   
+     */
+
+    private void requestResync() {
+        long now = System.currentTimeMillis();
+        if (now - resyncRequested < (long) MAX_TIME_OUT * MAX_ATTEMPTS) return;
+        resyncRequested = now;
+        print("    " + revision + ",  ");
         try {
-            ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.array()));
-            return (Response) objectInputStream.readObject();
-        } catch (ClassNotFoundException | ClassCastException | IOException e) {
-            throw new InvalidReceivedDataException();
+            broadcastTransport.post(MessageCodec.encode(new CommandMsg().setStatus(Request.Status.HELLO).setBroadcastAddress(host).setRevision(revision)));
+        } catch (ConnectionException ignored) {
         }
     }
 
@@ -202,15 +250,19 @@ public class Client extends Thread implements SenderReceiver {
     public void run() {
         Request hello = new CommandMsg();
         hello.setStatus(Request.Status.HELLO);
+        hello.setRevision(revision);
         try {
             send(hello);
-            Response response = receive();
-            if (response.getStatus() == Response.Status.COLLECTION && response.getCollection() != null && response.getCollectionOperation() == CollectionOperation.ADD) {
-                collectionManager.applyChanges(response);
-            }
+            applySnapshot(receive());
         } catch (ConnectionException | InvalidDataException e) {
             printErr("     ");
         }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, " ");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
         while (running) {
             try {
                 receivedRequest = false;
@@ -218,12 +270,12 @@ public class Client extends Thread implements SenderReceiver {
                 String msg = response.getMessage();
                 switch (response.getStatus()) {
                     case COLLECTION:
-                        collectionManager.applyChanges(response);
+                        applySnapshot(response);
                         print("!");
                         break;
                     case BROADCAST:
                         print(" !");
-                        collectionManager.applyChanges(response);
+                        applyBroadcast(response);
                         break;
                     case AUTH_SUCCESS:
                         user = attempt;
@@ -246,6 +298,9 @@ public class Client extends Thread implements SenderReceiver {
                         break;
                 }
 
+            } catch (ClosedConnectionException e) {
+                connected = false;
+                break;
             } catch (ConnectionException | InvalidDataException ignored) {
             }
         }
@@ -346,9 +401,10 @@ public class Client extends Thread implements SenderReceiver {
 
         }
         running = false;
+        if (heartbeat != null) heartbeat.shutdown();
         commandManager.close();
-        socket.close();
-        broadcastSocket.close();
+        transport.close();
+        broadcastTransport.close();
     }
 
 }
\ No newline at end of file
@@ -4,7 +4,6 @@ import common.collection.HumanManagerImpl;
 import common.connection.CollectionOperation;
 import common.connection.Response;
 import common.data.HumanBeing;
-import common.exceptions.NoSuchIdException;
 import controllers.MainWindowController;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -12,11 +11,10 @@ import javafx.collections.ObservableList;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class HumanObservableManager extends HumanManagerImpl {
+public class HumanObservableManager extends HumanManagerImpl<ObservableList<HumanBeing>> {
     private final ObservableList<HumanBeing> collection;
     private final Set<Integer> uniqueIds;
     private MainWindowController controller;
@@ -30,31 +28,38 @@ public class HumanObservableManager extends HumanManagerImpl {
         return uniqueIds;
     }
 
-    public void applyChanges(Response response) {
-        CollectionOperation op = response.getCollectionOperation();
-        Collection<HumanBeing> changes = response.getCollection();
-        ObservableList<HumanBeing> old = FXCollections.observableArrayList(collection);
+    /**
+     * Применяет изменения из ответа: одиночную операцию и изменения, сгруппированные по операциям.
+     * Повторное применение безопасно: добавление существующего элемента обновляет его,
+     * удаление отсутствующего ничего не делает.
+     */
 
-        if (op == CollectionOperation.ADD) {
-            for (HumanBeing human : changes) {
-                super.addWithoutIdGeneration(human);
-            }
+    public void applyChanges(Response response) {
+        if (response.getCollectionOperation() != CollectionOperation.NONE) {
+            applyChanges(response.getCollectionOperation(), response.getCollection());
         }
+        response.getChanges().forEach(this::applyChanges);
+    }
 
-        if (op == CollectionOperation.REMOVE) {
-            for (HumanBeing human : changes) {
-                Collections.copy(old, collection);
-                super.removeByID(human.getId());
-            }
-        }
+    private void applyChanges(CollectionOperation op, Collection<HumanBeing> changes) {
+        if (changes == null) return;
+        ObservableList<HumanBeing> old = FXCollections.observableArrayList(collection);
 
-        if (op == CollectionOperation.UPDATE) {
-            for (HumanBeing human : changes) {
+        for (HumanBeing human : changes) {
+            boolean present = checkID(human.getId());
+            if (op == CollectionOperation.REMOVE) {
+                if (present) {
+                    Collections.copy(old, collection);
+                    super.removeByID(human.getId());
+                }
+            } else if (present) {
                 super.updateByID(human.getId(), human);
+            } else {
+                super.addWithoutIdGeneration(human);
             }
         }
 
-        if (controller != null && op != CollectionOperation.NONE && changes != null && !changes.isEmpty()) {
+        if (controller != null && op != CollectionOperation.NONE && !changes.isEmpty()) {
             Platform.runLater(() -> {
 
                 controller.refreshCanvas(op != CollectionOperation.REMOVE ? collection : old, changes, op);
@@ -70,14 +75,10 @@ public class HumanObservableManager extends HumanManagerImpl {
 
     @Override
     public void updateByID(Integer id, HumanBeing newHuman) {
-        assertNotEmpty();
-        Optional<HumanBeing> human = getCollection().stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
-            throw new NoSuchIdException(id);
-        }
-        Collections.replaceAll(collection, human.get(), newHuman);
+        HumanBeing human = getByID(id);
+        collection.set(collection.indexOf(human), newHuman);
+        unindex(human);
+        index(newHuman);
     }
 
     public void setController(MainWindowController c) {
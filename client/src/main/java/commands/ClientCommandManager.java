@@ -58,6 +58,7 @@ public class ClientCommandManager extends CommandManager {
                     client.getOutputManager().info(res.getMessage());
                     break;
                 case ERROR:
+                case BUSY:
                     client.getOutputManager().error(res.getMessage());
                     break;
                 case AUTH_SUCCESS:
@@ -70,6 +71,8 @@ public class ClientCommandManager extends CommandManager {
                 client.getHumanManager().applyChanges(res);
             } else if (res.getCollectionOperation() != CollectionOperation.NONE && res.getCollection() != null) {
                 client.getHumanManager().applyChanges(res);
+            } else if (res.getCollection() != null) {
+                res.getCollection().forEach(human -> print(human.toString()));
             }
         }
         print(res.getMessage());
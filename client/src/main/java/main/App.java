@@ -2,6 +2,7 @@ package main;
 
 
 import client.Client;
+import common.connection.TransportType;
 import common.exceptions.ConnectionException;
 import common.exceptions.InvalidPortException;
 import controllers.AskWindowController;
@@ -74,7 +75,7 @@ public class App extends Application {
         resourceFactory.setResources(ResourceBundle.getBundle(BUNDLE));
         outputter = new OutputterUI(resourceFactory);
         try {
-            client = new Client(address, port);
+            client = new Client(address, port, TransportType.parse(System.getProperty("transport")));
             client.setOutputManager(outputter);
             client.setResourceFactory(resourceFactory);
             client.connectionTest();
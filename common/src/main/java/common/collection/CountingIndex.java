@@ -0,0 +1,64 @@
+package common.collection;
+
+import common.data.HumanBeing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Упорядоченный индекс числового поля с подсчётом повторов.
+ * Минимум и максимум берутся с краёв, список различных значений — без обхода элементов.
+ */
+
+public class CountingIndex {
+    private final Function<HumanBeing, Integer> field;
+    private final ConcurrentSkipListMap<Integer, Integer> counts;
+
+    public CountingIndex(Function<HumanBeing, Integer> field) {
+        this.field = field;
+        counts = new ConcurrentSkipListMap<>();
+    }
+
+    public void add(HumanBeing human) {
+        Integer value = field.apply(human);
+        if (value != null) counts.merge(value, 1, Integer::sum);
+    }
+
+    public void remove(HumanBeing human) {
+        Integer value = field.apply(human);
+        if (value != null) counts.computeIfPresent(value, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public void clear() {
+        counts.clear();
+    }
+
+    /**
+     * @return наименьшее значение или null, если индекс пуст
+     */
+
+    public Integer min() {
+        Map.Entry<Integer, Integer> entry = counts.firstEntry();
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * @return наибольшее значение или null, если индекс пуст
+     */
+
+    public Integer max() {
+        Map.Entry<Integer, Integer> entry = counts.lastEntry();
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * @return различные значения по возрастанию
+     */
+
+    public List<Integer> distinct() {
+        return new ArrayList<>(counts.keySet());
+    }
+}
@@ -11,13 +11,13 @@ import java.util.List;
 
 public interface HumanManager {
 
+    Collection<HumanBeing> getCollection();
+
     /**
-     * sorts collection
+     * collection elements ordered by coordinates and id, kept sorted on every change
      */
 
-    void sort();
-
-    Collection<HumanBeing> getCollection();
+    Collection<HumanBeing> getSorted();
 
     /**
      * adds new element
@@ -93,5 +93,11 @@ public interface HumanManager {
 
     List<Integer> getUniqueImpactSpeed();
 
+    /**
+     * statistics maintained on every change
+     */
+
+    HumanStats getStats();
+
 }
 
@@ -6,11 +6,19 @@ import common.exceptions.EmptyCollectionException;
 import common.exceptions.NoSuchIdException;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> implements HumanManager {
 
     private final java.time.LocalDateTime initDate;
+    private final Map<Integer, HumanBeing> humansById;
+    private final NavigableSet<HumanBeing> sorted;
+    private final PrefixIndex names;
+    private final PrefixIndex soundtracks;
+    private final CountingIndex impactSpeeds;
+    private final HumanStats stats;
+    private IdAllocator ids;
 
     /**
      * Конструктор для начальных значений.
@@ -18,21 +26,41 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
 
     public HumanManagerImpl() {
         initDate = java.time.LocalDateTime.now();
+        humansById = new ConcurrentHashMap<>();
+        sorted = new ConcurrentSkipListSet<>(new HumanBeing.SortingComparator());
+        names = new PrefixIndex(HumanBeing::getName);
+        soundtracks = new PrefixIndex(HumanBeing::getSoundtrackName);
+        impactSpeeds = new CountingIndex(HumanBeing::getImpactSpeed);
+        stats = new HumanStats();
+        ids = IdAllocator.inMemory(IdAllocator.DEFAULT_BLOCK_SIZE);
     }
 
+    /**
+     * Следующий свободный id из текущего блока, без перебора занятых
+     */
+
     public int generateNextId() {
-        if (getCollection().isEmpty())
-            return 1;
-        else {
-            int id = 1;
-            if (getUniqueIds().contains(id)) {
-                while (getUniqueIds().contains(id)) id += 1;
-            }
-            return id;
-        }
+        return ids.next();
     }
 
-    public void sort() {
+    /**
+     * Заменяет источник идентификаторов, например на последовательность в базе данных
+     */
+
+    protected void setIdAllocator(IdAllocator allocator) {
+        ids = allocator;
+    }
+
+    protected IdAllocator getIdAllocator() {
+        return ids;
+    }
+
+    /**
+     * @return элементы по возрастанию координат, без копирования и пересортировки
+     */
+
+    public Collection<HumanBeing> getSorted() {
+        return Collections.unmodifiableNavigableSet(sorted);
     }
 
     /**
@@ -51,22 +79,106 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
         getUniqueIds().add(id);
         human.setId(id);
         getCollection().add(human);
+        index(human);
     }
 
     public HumanBeing getByID(Integer id) {
         assertNotEmpty();
-        Optional<HumanBeing> human = getCollection().stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
+        HumanBeing human = findByID(id);
+        if (human == null) {
             throw new NoSuchIdException(id);
         }
-        return human.get();
+        return human;
     }
 
     protected void addWithoutIdGeneration(HumanBeing human) {
+        ids.advancePast(human.getId());
         getUniqueIds().add(human.getId());
         getCollection().add(human);
+        index(human);
+    }
+
+    /**
+     * Поиск по индексу идентификаторов без обхода коллекции.
+     *
+     * @return элемент или null, если его нет
+     */
+
+    protected HumanBeing findByID(Integer id) {
+        return humansById.get(id);
+    }
+
+    /**
+     * Добавляет элемент в индексы: по идентификатору, по началу саундтрека, в упорядоченные индексы
+     * и в статистику. Элемент с тем же id, если он был, сначала убирается из индексов.
+     */
+
+    protected void index(HumanBeing human) {
+        HumanBeing replaced = humansById.get(human.getId());
+        if (replaced != null) unindex(replaced);
+        humansById.put(human.getId(), human);
+        soundtracks.add(human);
+        indexOrders(human);
+        stats.add(human);
+    }
+
+    protected void unindex(HumanBeing human) {
+        if (!humansById.remove(human.getId(), human)) return;
+        soundtracks.remove(human);
+        unindexOrders(human);
+        stats.remove(human);
+    }
+
+    protected void clearIndex() {
+        humansById.clear();
+        soundtracks.clear();
+        clearOrders();
+        stats.clear();
+    }
+
+    /**
+     * Упорядоченные индексы: по координатам, по началу имени и по скорости удара.
+     * Наследник, который хранит эти порядки сам, переопределяет эти методы вместе
+     * с {@link #getSorted()}, {@link #filterStartsWithName}, {@link #getUniqueImpactSpeed()}
+     * и {@link #maxImpactSpeed()}/{@link #minImpactSpeed()}.
+     */
+
+    protected void indexOrders(HumanBeing human) {
+        sorted.add(human);
+        names.add(human);
+        impactSpeeds.add(human);
+    }
+
+    protected void unindexOrders(HumanBeing human) {
+        sorted.remove(human);
+        names.remove(human);
+        impactSpeeds.remove(human);
+    }
+
+    protected void clearOrders() {
+        sorted.clear();
+        names.clear();
+        impactSpeeds.clear();
+    }
+
+    /**
+     * @return наибольшая скорость удара или null, если коллекция пуста
+     */
+
+    protected Integer maxImpactSpeed() {
+        return impactSpeeds.max();
+    }
+
+    protected Integer minImpactSpeed() {
+        return impactSpeeds.min();
+    }
+
+    /**
+     * @return статистика, поддерживаемая вместе с индексами
+     */
+
+    public HumanStats getStats() {
+        return stats;
     }
 
     /**
@@ -94,14 +206,9 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
      */
 
     public void removeByID(Integer id) {
-        assertNotEmpty();
-        Optional<HumanBeing> human = getCollection().stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
-            throw new NoSuchIdException(id);
-        }
-        getCollection().remove(human.get());
+        HumanBeing human = getByID(id);
+        getCollection().remove(human);
+        unindex(human);
         getUniqueIds().remove(id);
     }
 
@@ -111,16 +218,12 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
      * @param id ID
      */
     public void updateByID(Integer id, HumanBeing newHuman) {
-        assertNotEmpty();
-        Optional<HumanBeing> human = getCollection().stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
-            throw new NoSuchIdException(id);
-        }
-        getCollection().remove(human.get());
+        HumanBeing human = getByID(id);
+        getCollection().remove(human);
+        unindex(human);
         newHuman.setId(id);
         getCollection().add(newHuman);
+        index(newHuman);
     }
 
     /**
@@ -135,14 +238,16 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
     public void clear() {
         getCollection().clear();
         getUniqueIds().clear();
+        clearIndex();
     }
 
     public void removeFirst() {
         assertNotEmpty();
         Iterator<HumanBeing> it = getCollection().iterator();
-        int id = it.next().getId();
+        HumanBeing human = it.next();
         it.remove();
-        getUniqueIds().remove(id);
+        unindex(human);
+        getUniqueIds().remove(human.getId());
     }
 
     /**
@@ -150,11 +255,9 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
      */
 
     public void addIfMax(HumanBeing human) {
-        if (getCollection().stream()
-                .max(HumanBeing::compareTo)
-                .filter(h -> h.compareTo(human) > 0)
-                .isPresent()) {
-            throw new CannotAddException();
+        Integer max = maxImpactSpeed();
+        if (max != null && max > human.getImpactSpeed()) {
+            throw new CannotAddException("max impact speed is " + max);
         }
         add(human);
     }
@@ -164,32 +267,27 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
      */
 
     public void addIfMin(HumanBeing human) {
-        if (getCollection().stream()
-                .min(HumanBeing::compareTo)
-                .filter(h -> h.compareTo(human) < 0)
-                .isPresent()) {
-            throw new CannotAddException();
+        Integer min = minImpactSpeed();
+        if (min != null && min < human.getImpactSpeed()) {
+            throw new CannotAddException("min impact speed is " + min);
         }
         add(human);
     }
 
     public List<HumanBeing> filterStartsWithSoundtrack(String start) {
         assertNotEmpty();
-        return getCollection().stream()
-                .filter(h -> h.getSoundtrackName().startsWith(start.trim()))
-                .collect(Collectors.toList());
+        return soundtracks.startsWith(start.trim());
     }
 
     public List<HumanBeing> filterStartsWithName(String start) {
         assertNotEmpty();
-        return getCollection().stream()
-                .filter(h -> h.getName().startsWith(start.trim()))
-                .collect(Collectors.toList());
+        return names.startsWith(start.trim());
     }
 
     public List<HumanBeing> filterID(Integer id) {
         assertNotEmpty();
-        return getCollection().stream().filter(h -> h.getId() == id).collect(Collectors.toList());
+        HumanBeing human = findByID(id);
+        return human == null ? Collections.emptyList() : Collections.singletonList(human);
     }
 
     /**
@@ -198,12 +296,7 @@ public abstract class HumanManagerImpl<T extends Collection<HumanBeing>> impleme
 
     public List<Integer> getUniqueImpactSpeed() {
         assertNotEmpty();
-        List<Integer> impactSpeed;
-        impactSpeed = getCollection().stream()
-                .map(HumanBeing::getImpactSpeed)
-                .distinct()
-                .collect(Collectors.toList());
-        return impactSpeed;
+        return impactSpeeds.distinct();
     }
 
     @Override
@@ -0,0 +1,187 @@
+package common.collection;
+
+import common.data.HumanBeing;
+import common.data.WeaponType;
+
+import java.util.*;
+
+/**
+ * Статистика коллекции, которая пересчитывается при каждом изменении за O(1) или O(log n)
+ * и читается без обхода элементов.
+ */
+
+public class HumanStats {
+    private final Aggregate impactSpeed;
+    private final Aggregate minutesOfWaiting;
+    private final Map<WeaponType, Integer> weaponTypes;
+    private final Map<String, Integer> owners;
+    private int count;
+
+    public HumanStats() {
+        impactSpeed = new Aggregate();
+        minutesOfWaiting = new Aggregate();
+        weaponTypes = new EnumMap<>(WeaponType.class);
+        owners = new HashMap<>();
+    }
+
+    public synchronized void add(HumanBeing human) {
+        count++;
+        if (human.getImpactSpeed() != null) impactSpeed.add(human.getImpactSpeed());
+        if (human.getMinutesOfWaiting() != null) minutesOfWaiting.add(human.getMinutesOfWaiting());
+        if (human.getWeaponType() != null) weaponTypes.merge(human.getWeaponType(), 1, Integer::sum);
+        if (human.getUserLogin() != null) owners.merge(human.getUserLogin(), 1, Integer::sum);
+    }
+
+    public synchronized void remove(HumanBeing human) {
+        count--;
+        if (human.getImpactSpeed() != null) impactSpeed.remove(human.getImpactSpeed());
+        if (human.getMinutesOfWaiting() != null) minutesOfWaiting.remove(human.getMinutesOfWaiting());
+        if (human.getWeaponType() != null) weaponTypes.computeIfPresent(human.getWeaponType(), HumanStats::decrement);
+        if (human.getUserLogin() != null) owners.computeIfPresent(human.getUserLogin(), HumanStats::decrement);
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        impactSpeed.clear();
+        minutesOfWaiting.clear();
+        weaponTypes.clear();
+        owners.clear();
+    }
+
+    private static Integer decrement(Object key, Integer value) {
+        return value > 1 ? value - 1 : null;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    public synchronized Summary getImpactSpeed() {
+        return impactSpeed.summary();
+    }
+
+    public synchronized Summary getMinutesOfWaiting() {
+        return minutesOfWaiting.summary();
+    }
+
+    /**
+     * @return число элементов с каждым типом оружия
+     */
+
+    public synchronized Map<WeaponType, Integer> getWeaponTypes() {
+        return new EnumMap<>(weaponTypes);
+    }
+
+    /**
+     * @return число элементов у каждого владельца
+     */
+
+    public synchronized Map<String, Integer> getOwners() {
+        return new TreeMap<>(owners);
+    }
+
+    /**
+     * Сумма, среднее и сумма квадратов отклонений (алгоритм Уэлфорда, с обратным шагом для удаления),
+     * упорядоченные значения с числом повторов для минимума и максимума.
+     * В отличие от суммы квадратов, дисперсия не теряет точность при больших значениях с малым разбросом.
+     */
+
+    private static class Aggregate {
+        private final TreeMap<Double, Integer> values = new TreeMap<>();
+        private long count;
+        private double sum;
+        private double mean;
+        private double squaredDeviations;
+
+        void add(double value) {
+            count++;
+            sum += value;
+            double delta = value - mean;
+            mean += delta / count;
+            squaredDeviations += delta * (value - mean);
+            values.merge(value, 1, Integer::sum);
+        }
+
+        void remove(double value) {
+            if (!values.containsKey(value)) return;
+            values.computeIfPresent(value, HumanStats::decrement);
+            count--;
+            if (count == 0) {
+                sum = 0;
+                mean = 0;
+                squaredDeviations = 0;
+                return;
+            }
+            sum -= value;
+            double delta = value - mean;
+            mean -= delta / count;
+            squaredDeviations = Math.max(0, squaredDeviations - delta * (value - mean));
+        }
+
+        void clear() {
+            values.clear();
+            count = 0;
+            sum = 0;
+            mean = 0;
+            squaredDeviations = 0;
+        }
+
+        Summary summary() {
+            if (count == 0) return new Summary(0, 0, 0, 0, 0, 0);
+            return new Summary(count, sum, values.firstKey(), values.lastKey(), mean, squaredDeviations / count);
+        }
+    }
+
+    /**
+     * Значения статистики числового поля на момент запроса.
+     */
+
+    public static class Summary {
+        private final long count;
+        private final double sum;
+        private final double min;
+        private final double max;
+        private final double average;
+        private final double variance;
+
+        Summary(long count, double sum, double min, double max, double average, double variance) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+            this.average = average;
+            this.variance = variance;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        public double getVariance() {
+            return variance;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) return "нет значений";
+            return String.format("количество %d, сумма %.2f, минимум %.2f, максимум %.2f, среднее %.2f, дисперсия %.2f",
+                    count, sum, min, max, average, variance);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package common.collection;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Выдача идентификаторов блоками (hi/lo): источник резервирует сразу блок подряд идущих id,
+ * а внутри блока они раздаются атомарным счётчиком. Когда в блоке остаётся четверть,
+ * следующий блок запрашивается заранее, поэтому вставка не ждёт источника.
+ */
+
+public class IdAllocator {
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final int blockSize;
+    private final int lowWater;
+    private final IntBinaryOperator source;
+    private final Executor executor;
+    private final Object refillLock;
+    private volatile Block current;
+    private CompletableFuture<Block> prefetched;
+    private int floor;
+
+    /**
+     * @param blockSize размер резервируемого блока
+     * @param source    резервирует блок заданного размера не ниже заданного id и возвращает его первый id
+     * @param executor  где выполнять заблаговременные запросы следующего блока
+     */
+
+    public IdAllocator(int blockSize, IntBinaryOperator source, Executor executor) {
+        this.blockSize = blockSize;
+        this.source = source;
+        this.executor = executor;
+        lowWater = Math.max(1, blockSize / 4);
+        refillLock = new Object();
+        floor = 1;
+    }
+
+    /**
+     * Блоки из счётчика в памяти, начиная с 1
+     */
+
+    public static IdAllocator inMemory(int blockSize) {
+        AtomicInteger counter = new AtomicInteger(1);
+        IntBinaryOperator source = (size, floor) -> counter.accumulateAndGet(floor, (next, min) -> Math.max(next, min) + size) - size;
+        return new IdAllocator(blockSize, source, Runnable::run);
+    }
+
+    public int next() {
+        while (true) {
+            Block block = current;
+            if (block != null) {
+                int id = block.next.getAndIncrement();
+                if (id < block.end) {
+                    if (block.end - id == lowWater) prefetch();
+                    return id;
+                }
+            }
+            replace(block);
+        }
+    }
+
+    /**
+     * Не выдавать id не больше заданного: вызывается для элементов, загруженных со своими id.
+     */
+
+    public void advancePast(int id) {
+        synchronized (refillLock) {
+            if (id < floor) return;
+            floor = id + 1;
+            Block block = current;
+            if (block != null) block.next.accumulateAndGet(floor, Math::max);
+        }
+    }
+
+    private void prefetch() {
+        synchronized (refillLock) {
+            if (prefetched == null) {
+                int min = floor;
+                prefetched = CompletableFuture.supplyAsync(() -> reserve(min), executor);
+            }
+        }
+    }
+
+    private void replace(Block exhausted) {
+        synchronized (refillLock) {
+            if (current != exhausted) return;
+            Block block = null;
+            if (prefetched != null) {
+                try {
+                    block = prefetched.join();
+                } catch (CompletionException ignored) {
+                }
+                prefetched = null;
+            }
+            if (block == null || block.end <= floor) block = reserve(floor);
+            block.next.accumulateAndGet(floor, Math::max);
+            current = block;
+        }
+    }
+
+    private Block reserve(int min) {
+        int start = source.applyAsInt(blockSize, min);
+        return new Block(start, start + blockSize);
+    }
+
+    private static class Block {
+        private final AtomicInteger next;
+        private final int end;
+
+        Block(int start, int end) {
+            next = new AtomicInteger(start);
+            this.end = end;
+        }
+    }
+}
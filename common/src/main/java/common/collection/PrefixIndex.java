@@ -0,0 +1,60 @@
+package common.collection;
+
+import common.data.HumanBeing;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+/**
+ * Индекс строкового поля для поиска по началу строки.
+ * Значения хранятся упорядоченно, поэтому все строки с заданным началом идут подряд
+ * и поиск обходит только подходящие элементы.
+ */
+
+public class PrefixIndex {
+    private final Function<HumanBeing, String> field;
+    private final ConcurrentSkipListMap<String, Map<Integer, HumanBeing>> humans;
+
+    public PrefixIndex(Function<HumanBeing, String> field) {
+        this.field = field;
+        humans = new ConcurrentSkipListMap<>();
+    }
+
+    public void add(HumanBeing human) {
+        String key = field.apply(human);
+        if (key == null) return;
+        humans.compute(key, (k, same) -> {
+            if (same == null) same = new ConcurrentHashMap<>();
+            same.put(human.getId(), human);
+            return same;
+        });
+    }
+
+    public void remove(HumanBeing human) {
+        String key = field.apply(human);
+        if (key == null) return;
+        humans.computeIfPresent(key, (k, same) -> {
+            same.remove(human.getId(), human);
+            return same.isEmpty() ? null : same;
+        });
+    }
+
+    public void clear() {
+        humans.clear();
+    }
+
+    /**
+     * @return элементы, у которых значение поля начинается с prefix
+     */
+
+    public List<HumanBeing> startsWith(String prefix) {
+        List<HumanBeing> result = new ArrayList<>();
+        for (Map.Entry<String, Map<Integer, HumanBeing>> entry : humans.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) break;
+            result.addAll(entry.getValue().values());
+        }
+        return result;
+    }
+}
@@ -123,8 +123,8 @@ public abstract class CommandManager implements Commandable, Closeable {
                 info : запись в стандартный вывод информации о коллекции (тип,
                 дата инициализации, количество элементов и т.д.)
 
-                show : вывести на стандартный вывод все элементы коллекции в
-                строковое представление
+                show [size] [coordinates|id|name|speed|date] [asc|desc] [cursor] : вывести
+                страницу коллекции в заданном порядке; курсор из ответа выводит следующую страницу
 
                 add {element} : добавление новый элемент в коллекцию
 
@@ -159,7 +159,14 @@ public abstract class CommandManager implements Commandable, Closeable {
                 filter_starts_with_name name : выходные элементы, значение имени поля
                 который начинается с заданной подстроки
 
-                print_unique_impact_speed : выведите уникальные значения поля скорости удара""";
+                print_unique_impact_speed : выведите уникальные значения поля скорости удара
+
+                stats : статистика коллекции: скорость удара и время ожидания (сумма, минимум,
+                максимум, среднее, дисперсия), число элементов по типу оружия и по владельцам
+
+                filter_in_box x1 y1 x2 y2 : вывести элементы, координаты которых лежат в прямоугольнике
+
+                nearest x y k : вывести k элементов, ближайших к точке (x, y)""";
 
     }
 
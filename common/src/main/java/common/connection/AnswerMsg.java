@@ -3,21 +3,28 @@ package common.connection;
 import common.data.HumanBeing;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Message witch server send to client
  */
 public class AnswerMsg implements Response {
     private static final long serialVersionUID = 666;
+    private long requestId;
     private String msg;
     private Status status;
     private Collection<HumanBeing> collection;
     private CollectionOperation collectionOperation;
+    private Map<CollectionOperation, Collection<HumanBeing>> changes;
+    private long revision;
+    private long baseRevision;
 
     public AnswerMsg() {
         msg = "";
         status = Status.FINE;
         collectionOperation = CollectionOperation.NONE;
+        changes = new LinkedHashMap<>();
     }
 
     public AnswerMsg clear() {
@@ -60,6 +67,46 @@ public class AnswerMsg implements Response {
         return collection;
     }
 
+    public AnswerMsg setChanges(Map<CollectionOperation, ? extends Collection<HumanBeing>> c) {
+        changes = new LinkedHashMap<>(c);
+        return this;
+    }
+
+    public Map<CollectionOperation, Collection<HumanBeing>> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Задаёт диапазон ревизий, который покрывают изменения.
+     */
+
+    public AnswerMsg setRevision(long base, long r) {
+        baseRevision = base;
+        revision = r;
+        return this;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public long getBaseRevision() {
+        return baseRevision;
+    }
+
+    public AnswerMsg setRequestId(long id) {
+        requestId = id;
+        return this;
+    }
+
+    /**
+     * @return Номер запроса, на который дан ответ.
+     */
+
+    public long getRequestId() {
+        return requestId;
+    }
+
     public String getMessage() {
         return msg;
     }
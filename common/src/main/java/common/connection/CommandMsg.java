@@ -11,12 +11,14 @@ import java.net.InetSocketAddress;
  */
 
 public class CommandMsg implements Request {
+    private long id;
     private final String commandName;
     private String commandStringArgument;
     private HumanBeing human;
     private User user;
     private Status status;
     private InetSocketAddress address;
+    private long revision;
 
     public CommandMsg(String commandNm, String commandSA, HumanBeing h) {
         commandName = commandNm;
@@ -48,6 +50,19 @@ public class CommandMsg implements Request {
         status = Status.DEFAULT;
     }
 
+    /**
+     * @return Номер запроса, уникальный в пределах клиента.
+     */
+
+    public long getId() {
+        return id;
+    }
+
+    public CommandMsg setId(long i) {
+        id = i;
+        return this;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -110,4 +125,13 @@ public class CommandMsg implements Request {
         return this;
     }
 
+    public long getRevision() {
+        return revision;
+    }
+
+    public CommandMsg setRevision(long r) {
+        revision = r;
+        return this;
+    }
+
 }
\ No newline at end of file
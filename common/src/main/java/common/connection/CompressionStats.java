@@ -0,0 +1,55 @@
+package common.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Статистика сжатия сообщений: сколько сообщений сжато, во сколько раз и сколько времени это заняло.
+ */
+
+public class CompressionStats {
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * @param original   размер до сжатия
+     * @param compressed размер после сжатия
+     * @param time       время сжатия в наносекундах
+     */
+
+    public void record(int original, int compressed, long time) {
+        messages.incrementAndGet();
+        originalBytes.addAndGet(original);
+        compressedBytes.addAndGet(compressed);
+        nanos.addAndGet(time);
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * @return во сколько раз в среднем уменьшились сообщения
+     */
+
+    public double getRatio() {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 1 : (double) originalBytes.get() / compressed;
+    }
+
+    /**
+     * @return среднее время сжатия одного сообщения в микросекундах
+     */
+
+    public double getMicrosPerMessage() {
+        long count = messages.get();
+        return count == 0 ? 0 : nanos.get() / 1000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("сообщений: %d, коэффициент: %.2f, время: %.1f мкс/сообщение",
+                getMessages(), getRatio(), getMicrosPerMessage());
+    }
+}
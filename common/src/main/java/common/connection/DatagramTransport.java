@@ -0,0 +1,126 @@
+package common.connection;
+
+import common.exceptions.*;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UDP: сообщения делятся на фрагменты, потерянные фрагменты дозапрашиваются,
+ * запрос без ответа отправляется повторно.
+ */
+
+public class DatagramTransport implements Transport {
+    private static final AtomicInteger nextMessageId = new AtomicInteger();
+
+    private final InetSocketAddress server;
+    private final DatagramSocket socket;
+    private final FragmentAssembler assembler;
+    private volatile List<byte[]> lastMessage;
+
+    /**
+     * @param timeout время ожидания одной датаграммы в миллисекундах
+     */
+
+    public DatagramTransport(InetSocketAddress server, int timeout) throws ConnectionException {
+        this.server = server;
+        assembler = new FragmentAssembler();
+        try {
+            socket = new DatagramSocket();
+            socket.setSoTimeout(timeout);
+        } catch (IOException e) {
+            throw new ConnectionException("не удалось открыть сокет");
+        }
+    }
+
+    @Override
+    public void send(byte[] message) throws ConnectionException {
+        lastMessage = Fragmenter.split(nextMessageId.incrementAndGet(), message);
+        retransmit();
+    }
+
+    @Override
+    public void post(byte[] message) throws ConnectionException {
+        sendFragments(Fragmenter.split(nextMessageId.incrementAndGet(), message));
+    }
+
+    @Override
+    public void retransmit() throws ConnectionException {
+        if (lastMessage != null) sendFragments(lastMessage);
+    }
+
+    private void sendFragments(List<byte[]> fragments) throws ConnectionException {
+        try {
+            for (byte[] fragment : fragments) {
+                socket.send(new DatagramPacket(fragment, fragment.length, server));
+            }
+        } catch (IOException e) {
+            throw new ConnectionException("что-то пошло не так при отправке запроса");
+        }
+    }
+
+    /**
+     * Сборка сообщения из фрагментов; по таймауту дозапрашиваются потерянные фрагменты,
+     * а если недособранных сообщений нет - повторяется последний запрос
+     */
+
+    @Override
+    public byte[] receive(int attempts) throws ConnectionException, InvalidDataException {
+        byte[] buffer = new byte[SenderReceiver.BUFFER_SIZE];
+        DatagramPacket receivePacket = new DatagramPacket(buffer, buffer.length);
+        while (true) {
+            receivePacket.setLength(buffer.length);
+            try {
+                socket.receive(receivePacket);
+            } catch (SocketTimeoutException e) {
+                if (attempts-- == 0) throw new ConnectionTimeoutException();
+                if (!requestMissingFragments()) retransmit();
+                continue;
+            } catch (SocketException e) {
+                if (socket.isClosed()) throw new ClosedConnectionException();
+                throw new ConnectionException("что-то пошло не так при получении ответа");
+            } catch (IOException e) {
+                throw new ConnectionException("что-то пошло не так при получении ответа");
+            }
+            byte[] message = assembler.accept(server, receivePacket.getData(), receivePacket.getLength());
+            if (message != null) return message;
+        }
+    }
+
+    /**
+     * Запрос повторной отправки недостающих фрагментов
+     *
+     * @return false, если недособранных сообщений нет
+     */
+
+    private boolean requestMissingFragments() throws ConnectionException {
+        try {
+            Map<Integer, List<Integer>> missingFragments = assembler.getMissing(server);
+            for (Map.Entry<Integer, List<Integer>> missing : missingFragments.entrySet()) {
+                for (byte[] nack : Fragmenter.nack(missing.getKey(), missing.getValue())) {
+                    socket.send(new DatagramPacket(nack, nack.length, server));
+                }
+            }
+            return !missingFragments.isEmpty();
+        } catch (IOException e) {
+            throw new ConnectionException("что-то пошло не так при запросе потерянных фрагментов");
+        }
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return new InetSocketAddress(InetAddress.getByName("localhost"), socket.getLocalPort());
+        } catch (UnknownHostException e) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+        }
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
@@ -0,0 +1,99 @@
+package common.connection;
+
+import common.exceptions.InvalidReceivedDataException;
+
+import java.net.SocketAddress;
+import java.util.*;
+
+/**
+ * Сборка сообщений из фрагментов, пришедших в произвольном порядке.
+ */
+
+public class FragmentAssembler {
+    public static final int MAX_PENDING_MESSAGES = 16;
+    public static final int MAX_COMPLETED_MESSAGES = 64;
+    public static final int MAX_FRAGMENTS = 1 << 14;
+
+    private final Map<Map.Entry<SocketAddress, Integer>, PendingMessage> pending;
+    private final Set<Map.Entry<SocketAddress, Integer>> completed;
+
+    public FragmentAssembler() {
+        pending = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map.Entry<SocketAddress, Integer>, PendingMessage> eldest) {
+                return size() > MAX_PENDING_MESSAGES;
+            }
+        };
+        completed = Collections.newSetFromMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map.Entry<SocketAddress, Integer>, Boolean> eldest) {
+                return size() > MAX_COMPLETED_MESSAGES;
+            }
+        });
+    }
+
+    /**
+     * Принимает фрагмент.
+     *
+     * @return собранное сообщение или null, если фрагментов пока недостаточно
+     */
+
+    public synchronized byte[] accept(SocketAddress from, byte[] data, int length) throws InvalidReceivedDataException {
+        if (!Fragmenter.isFragment(data, length)) throw new InvalidReceivedDataException();
+        int messageId = Fragmenter.getMessageId(data);
+        int index = Fragmenter.getIndex(data);
+        int count = Fragmenter.getCount(data);
+        if (count <= 0 || count > MAX_FRAGMENTS || index < 0 || index >= count) throw new InvalidReceivedDataException();
+        byte[] payload = Arrays.copyOfRange(data, Fragmenter.HEADER_SIZE, length);
+        if (count == 1) return payload;
+
+        Map.Entry<SocketAddress, Integer> key = new AbstractMap.SimpleEntry<>(from, messageId);
+        if (completed.contains(key)) return null;
+        PendingMessage message = pending.computeIfAbsent(key, k -> new PendingMessage(count));
+        if (message.fragments.length != count) throw new InvalidReceivedDataException();
+        if (message.fragments[index] == null) {
+            message.fragments[index] = payload;
+            message.received++;
+            message.size += payload.length;
+        }
+        if (message.received < count) return null;
+
+        pending.remove(key);
+        completed.add(key);
+        byte[] result = new byte[message.size];
+        int offset = 0;
+        for (byte[] fragment : message.fragments) {
+            System.arraycopy(fragment, 0, result, offset, fragment.length);
+            offset += fragment.length;
+        }
+        return result;
+    }
+
+    /**
+     * @return номера недостающих фрагментов по id недособранных сообщений отправителя
+     */
+
+    public synchronized Map<Integer, List<Integer>> getMissing(SocketAddress from) {
+        Map<Integer, List<Integer>> missing = new HashMap<>();
+        for (Map.Entry<Map.Entry<SocketAddress, Integer>, PendingMessage> entry : pending.entrySet()) {
+            if (!entry.getKey().getKey().equals(from)) continue;
+            List<Integer> indices = new ArrayList<>();
+            byte[][] fragments = entry.getValue().fragments;
+            for (int i = 0; i < fragments.length; i++) {
+                if (fragments[i] == null) indices.add(i);
+            }
+            missing.put(entry.getKey().getValue(), indices);
+        }
+        return missing;
+    }
+
+    private static class PendingMessage {
+        private final byte[][] fragments;
+        private int received;
+        private int size;
+
+        PendingMessage(int count) {
+            fragments = new byte[count][];
+        }
+    }
+}
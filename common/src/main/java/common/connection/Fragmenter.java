@@ -0,0 +1,91 @@
+package common.connection;
+
+import common.exceptions.InvalidReceivedDataException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбиение сообщений на датаграммы и запросы повторной отправки.
+ * <p>
+ * Фрагмент: magic (2 байта), тип (1), id сообщения (4), номер фрагмента (4), число фрагментов (4), данные.
+ * NACK: magic (2 байта), тип (1), id сообщения (4), число номеров (4), номера недостающих фрагментов.
+ */
+
+public final class Fragmenter {
+    public static final short MAGIC = 0x4C46;
+    public static final int HEADER_SIZE = 15;
+    public static final int MAX_PAYLOAD = SenderReceiver.BUFFER_SIZE - HEADER_SIZE;
+    public static final int MAX_NACK_INDICES = (SenderReceiver.BUFFER_SIZE - 11) / 4;
+
+    private static final byte KIND_DATA = 0;
+    private static final byte KIND_NACK = 1;
+
+    private Fragmenter() {
+    }
+
+    /**
+     * Делит сообщение на фрагменты, каждый из которых помещается в одну датаграмму.
+     */
+
+    public static List<byte[]> split(int messageId, byte[] message) {
+        int count = Math.max(1, (message.length + MAX_PAYLOAD - 1) / MAX_PAYLOAD);
+        List<byte[]> fragments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int offset = index * MAX_PAYLOAD;
+            int length = Math.min(MAX_PAYLOAD, message.length - offset);
+            ByteBuffer fragment = ByteBuffer.allocate(HEADER_SIZE + length);
+            fragment.putShort(MAGIC).put(KIND_DATA).putInt(messageId).putInt(index).putInt(count);
+            fragment.put(message, offset, length);
+            fragments.add(fragment.array());
+        }
+        return fragments;
+    }
+
+    /**
+     * Формирует запросы повторной отправки недостающих фрагментов.
+     */
+
+    public static List<byte[]> nack(int messageId, List<Integer> missing) {
+        List<byte[]> nacks = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += MAX_NACK_INDICES) {
+            List<Integer> part = missing.subList(from, Math.min(missing.size(), from + MAX_NACK_INDICES));
+            ByteBuffer nack = ByteBuffer.allocate(11 + part.size() * 4);
+            nack.putShort(MAGIC).put(KIND_NACK).putInt(messageId).putInt(part.size());
+            for (Integer index : part) nack.putInt(index);
+            nacks.add(nack.array());
+        }
+        return nacks;
+    }
+
+    public static boolean isNack(byte[] data, int length) {
+        return length >= 11 && ByteBuffer.wrap(data, 0, length).getShort() == MAGIC && data[2] == KIND_NACK;
+    }
+
+    public static int getMessageId(byte[] data) {
+        return ByteBuffer.wrap(data).getInt(3);
+    }
+
+    public static List<Integer> getNackIndices(byte[] data, int length) throws InvalidReceivedDataException {
+        ByteBuffer nack = ByteBuffer.wrap(data, 0, length);
+        int size = nack.getInt(7);
+        if (size < 0 || 11 + size * 4L > length) throw new InvalidReceivedDataException();
+        List<Integer> indices = new ArrayList<>(size);
+        nack.position(11);
+        for (int i = 0; i < size; i++) indices.add(nack.getInt());
+        return indices;
+    }
+
+    static boolean isFragment(byte[] data, int length) {
+        return length >= HEADER_SIZE && ByteBuffer.wrap(data, 0, length).getShort() == MAGIC && data[2] == KIND_DATA;
+    }
+
+    static int getIndex(byte[] data) {
+        return ByteBuffer.wrap(data).getInt(7);
+    }
+
+    static int getCount(byte[] data) {
+        return ByteBuffer.wrap(data).getInt(11);
+    }
+}
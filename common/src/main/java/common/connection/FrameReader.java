@@ -0,0 +1,75 @@
+package common.connection;
+
+import common.exceptions.InvalidReceivedDataException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбор потока на кадры: длина (4 байта), затем само сообщение.
+ * Данные можно подавать произвольными кусками - незаконченный кадр дособирается при следующем вызове.
+ * Буфер кадра растёт по мере прихода данных, поэтому заявленная длина сама по себе память не занимает.
+ */
+
+public class FrameReader {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    public static final int INITIAL_FRAME_SIZE = 64 * 1024;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private ByteBuffer frame;
+    private int length;
+
+    /**
+     * @return кадр: длина и сообщение
+     */
+
+    public static byte[] frame(byte[] message) {
+        return ByteBuffer.allocate(HEADER_SIZE + message.length).putInt(message.length).put(message).array();
+    }
+
+    /**
+     * Забирает из буфера все доступные байты.
+     *
+     * @return сообщения, полностью собранные к этому моменту
+     */
+
+    public List<byte[]> read(ByteBuffer data) throws InvalidReceivedDataException {
+        List<byte[]> messages = new ArrayList<>();
+        while (data.hasRemaining()) {
+            if (frame == null) {
+                transfer(data, header);
+                if (header.hasRemaining()) break;
+                length = header.flip().getInt();
+                header.clear();
+                if (length < 0 || length > MAX_FRAME_SIZE) throw new InvalidReceivedDataException();
+                frame = ByteBuffer.allocate(Math.min(length, INITIAL_FRAME_SIZE));
+            }
+            if (!frame.hasRemaining()) grow();
+            transfer(data, frame);
+            if (frame.position() < length) continue;
+            messages.add(frame.array());
+            frame = null;
+        }
+        return messages;
+    }
+
+    /**
+     * Удваивает буфер кадра, но не больше заявленной длины
+     */
+
+    private void grow() {
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(length, 2L * frame.capacity()));
+        larger.put(frame.flip());
+        frame = larger;
+    }
+
+    private static void transfer(ByteBuffer from, ByteBuffer to) {
+        int count = Math.min(from.remaining(), to.remaining());
+        ByteBuffer slice = from.slice();
+        slice.limit(count);
+        to.put(slice);
+        from.position(from.position() + count);
+    }
+}
@@ -0,0 +1,391 @@
+package common.connection;
+
+import common.auth.User;
+import common.data.Car;
+import common.data.Coordinates;
+import common.data.HumanBeing;
+import common.data.Interner;
+import common.data.WeaponType;
+import common.exceptions.InvalidReceivedDataException;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Бинарный формат сообщений вместо стандартной сериализации Java.
+ * <p>
+ * Заголовок: magic (2 байта), версия (1), тип сообщения (1), флаги (1), номер запроса (8).
+ * Строки и коллекции передаются с префиксом длины (-1 для null),
+ * перечисления - порядковым номером.
+ * <p>
+ * Тело длиннее порога сжимается Deflater: в заголовке ставится флаг FLAG_DEFLATE,
+ * за заголовком идёт исходная длина тела (4 байта) и сжатые данные.
+ */
+
+public final class MessageCodec {
+    public static final short MAGIC = 0x4C38;
+    public static final byte VERSION = 3;
+    public static final int HEADER_SIZE = 13;
+    public static final byte FLAG_DEFLATE = 1;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    public static final int MAX_MESSAGE_SIZE = FrameReader.MAX_FRAME_SIZE;
+
+    private static final int FLAGS_OFFSET = 4;
+    private static final CompressionStats compressionStats = new CompressionStats();
+    private static volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    private static final byte KIND_REQUEST = 0;
+    private static final byte KIND_RESPONSE = 1;
+
+    private static final byte NULL = -1;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * @param threshold с какого размера тела сообщения сжимаются; 0 - не сжимать
+     */
+
+    public static void setCompressionThreshold(int threshold) {
+        compressionThreshold = threshold;
+    }
+
+    public static CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public static byte[] encode(Request request) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SenderReceiver.BUFFER_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, KIND_REQUEST, request.getId());
+            writeEnum(out, request.getStatus());
+            writeString(out, request.getCommandName());
+            writeString(out, request.getStringArg());
+            writeUser(out, request.getUser());
+            writeAddress(out, request.getBroadcastAddress());
+            writeHuman(out, request.getHuman());
+            out.writeLong(request.getRevision());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compress(bytes.toByteArray());
+    }
+
+    public static byte[] encode(Response response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SenderReceiver.BUFFER_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, KIND_RESPONSE, response.getRequestId());
+            writeEnum(out, response.getStatus());
+            writeEnum(out, response.getCollectionOperation());
+            writeString(out, response.getMessage());
+            writeHumans(out, response.getCollection());
+            out.writeLong(response.getRevision());
+            out.writeLong(response.getBaseRevision());
+            writeChanges(out, response.getChanges());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compress(bytes.toByteArray());
+    }
+
+    public static Request decodeRequest(byte[] data, int length) throws InvalidReceivedDataException {
+        data = decompress(data, length);
+        length = data.length;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length))) {
+            long id = readHeader(in, KIND_REQUEST);
+            Request.Status status = readEnum(in, Request.Status.values());
+            String commandName = readString(in);
+            String argument = readString(in);
+            User user = readUser(in);
+            InetSocketAddress address = readAddress(in);
+            HumanBeing human = readHuman(in);
+            long revision = in.readLong();
+            return new CommandMsg(commandName, argument, human, user)
+                    .setId(id)
+                    .setStatus(status)
+                    .setBroadcastAddress(address)
+                    .setRevision(revision);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidReceivedDataException();
+        }
+    }
+
+    public static Response decodeResponse(byte[] data, int length) throws InvalidReceivedDataException {
+        data = decompress(data, length);
+        length = data.length;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length))) {
+            long requestId = readHeader(in, KIND_RESPONSE);
+            Response.Status status = readEnum(in, Response.Status.values());
+            CollectionOperation operation = readEnum(in, CollectionOperation.values());
+            String msg = readString(in);
+            Collection<HumanBeing> collection = readHumans(in);
+            long revision = in.readLong();
+            long baseRevision = in.readLong();
+            Map<CollectionOperation, Collection<HumanBeing>> changes = readChanges(in);
+            AnswerMsg answerMsg = new AnswerMsg().setRequestId(requestId).setStatus(status).setCollectionOperation(operation).setCollection(collection)
+                    .setRevision(baseRevision, revision).setChanges(changes);
+            if (msg != null) answerMsg.info(msg);
+            return answerMsg;
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidReceivedDataException();
+        }
+    }
+
+    /**
+     * Сжимает тело сообщения, если оно длиннее порога и сжатие даёт выигрыш
+     */
+
+    private static byte[] compress(byte[] message) {
+        int bodyLength = message.length - HEADER_SIZE;
+        int threshold = compressionThreshold;
+        if (threshold <= 0 || bodyLength < threshold) return message;
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(bodyLength / 2 + HEADER_SIZE + 4);
+        try {
+            deflater.setInput(message, HEADER_SIZE, bodyLength);
+            deflater.finish();
+            bytes.write(message, 0, HEADER_SIZE);
+            bytes.write(ByteBuffer.allocate(4).putInt(bodyLength).array(), 0, 4);
+            byte[] buffer = new byte[SenderReceiver.BUFFER_SIZE];
+            while (!deflater.finished()) {
+                bytes.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = bytes.toByteArray();
+        if (compressed.length >= message.length) return message;
+        compressed[FLAGS_OFFSET] |= FLAG_DEFLATE;
+        compressionStats.record(message.length, compressed.length, System.nanoTime() - start);
+        return compressed;
+    }
+
+    /**
+     * Распаковывает тело, не доверяя заявленной длине: буфер растёт по мере распаковки,
+     * но не больше заявленной длины и MAX_MESSAGE_SIZE. Поток со словарём, обрезанный поток
+     * и шаг без продвижения считаются повреждёнными данными.
+     *
+     * @return сообщение с распакованным телом или исходные данные, если тело не сжато
+     */
+
+    private static byte[] decompress(byte[] data, int length) throws InvalidReceivedDataException {
+        if (length < HEADER_SIZE + 4 || (data[FLAGS_OFFSET] & FLAG_DEFLATE) == 0) return data;
+        int bodyLength = ByteBuffer.wrap(data, HEADER_SIZE, 4).getInt();
+        if (bodyLength < 0 || bodyLength > MAX_MESSAGE_SIZE) throw new InvalidReceivedDataException();
+        int compressedLength = length - HEADER_SIZE - 4;
+        byte[] body = new byte[(int) Math.max(1, Math.min(bodyLength, Math.max(SenderReceiver.BUFFER_SIZE, compressedLength * 4L)))];
+        int total = 0;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_SIZE + 4, compressedLength);
+            while (!inflater.finished()) {
+                if (inflater.needsDictionary()) throw new InvalidReceivedDataException();
+                if (total == body.length) {
+                    if (body.length >= bodyLength) throw new InvalidReceivedDataException();
+                    body = Arrays.copyOf(body, (int) Math.min(bodyLength, body.length * 2L));
+                }
+                int remaining = inflater.getRemaining();
+                int count = inflater.inflate(body, total, body.length - total);
+                if (count == 0 && !inflater.finished() && inflater.getRemaining() == remaining) throw new InvalidReceivedDataException();
+                total += count;
+            }
+        } catch (DataFormatException e) {
+            throw new InvalidReceivedDataException();
+        } finally {
+            inflater.end();
+        }
+        if (total != bodyLength) throw new InvalidReceivedDataException();
+        byte[] message = new byte[HEADER_SIZE + bodyLength];
+        System.arraycopy(data, 0, message, 0, HEADER_SIZE);
+        System.arraycopy(body, 0, message, HEADER_SIZE, bodyLength);
+        message[FLAGS_OFFSET] &= ~FLAG_DEFLATE;
+        return message;
+    }
+
+    private static void writeHeader(DataOutputStream out, byte kind, long id) throws IOException {
+        out.writeShort(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(kind);
+        out.writeByte(0);
+        out.writeLong(id);
+    }
+
+    private static long readHeader(DataInputStream in, byte kind) throws IOException {
+        if (in.readShort() != MAGIC || in.readByte() != VERSION || in.readByte() != kind) {
+            throw new IOException("unknown message header");
+        }
+        in.readByte();
+        return in.readLong();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL) return null;
+        if (length < 0 || length > in.available()) throw new IOException("invalid string length");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeEnum(DataOutputStream out, Enum<?> e) throws IOException {
+        out.writeByte(e == null ? NULL : e.ordinal());
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, E[] values) throws IOException {
+        byte ordinal = in.readByte();
+        if (ordinal == NULL) return null;
+        if (ordinal < 0 || ordinal >= values.length) throw new IOException("invalid enum ordinal");
+        return values[ordinal];
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean b) throws IOException {
+        out.writeByte(b == null ? NULL : (b ? 1 : 0));
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        byte b = in.readByte();
+        if (b == NULL) return null;
+        return b != 0;
+    }
+
+    private static void writeUser(DataOutputStream out, User user) throws IOException {
+        out.writeBoolean(user != null);
+        if (user == null) return;
+        writeString(out, user.getLogin());
+        writeString(out, user.getPassword());
+    }
+
+    private static User readUser(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        User user = new User(readString(in));
+        user.setPassword(readString(in));
+        return user;
+    }
+
+    private static void writeAddress(DataOutputStream out, InetSocketAddress address) throws IOException {
+        if (address == null || address.getAddress() == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] raw = address.getAddress().getAddress();
+        out.writeByte(raw.length);
+        out.write(raw);
+        out.writeShort(address.getPort());
+    }
+
+    private static InetSocketAddress readAddress(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        if (length == 0) return null;
+        if (length != 4 && length != 16) throw new IOException("invalid address length");
+        byte[] raw = new byte[length];
+        in.readFully(raw);
+        int port = in.readUnsignedShort();
+        return new InetSocketAddress(InetAddress.getByAddress(raw), port);
+    }
+
+    private static void writeChanges(DataOutputStream out, Map<CollectionOperation, Collection<HumanBeing>> changes) throws IOException {
+        out.writeByte(changes.size());
+        for (Map.Entry<CollectionOperation, Collection<HumanBeing>> change : changes.entrySet()) {
+            writeEnum(out, change.getKey());
+            writeHumans(out, change.getValue());
+        }
+    }
+
+    private static Map<CollectionOperation, Collection<HumanBeing>> readChanges(DataInputStream in) throws IOException {
+        int count = in.readUnsignedByte();
+        Map<CollectionOperation, Collection<HumanBeing>> changes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            CollectionOperation operation = readEnum(in, CollectionOperation.values());
+            if (operation == null) throw new IOException("invalid collection operation");
+            changes.put(operation, readHumans(in));
+        }
+        return changes;
+    }
+
+    private static void writeHumans(DataOutputStream out, Collection<HumanBeing> humans) throws IOException {
+        if (humans == null) {
+            out.writeInt(NULL);
+            return;
+        }
+        HumanBeing[] snapshot = humans.toArray(new HumanBeing[0]);
+        out.writeInt(snapshot.length);
+        for (HumanBeing human : snapshot) {
+            writeHuman(out, human);
+        }
+    }
+
+    private static Collection<HumanBeing> readHumans(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size == NULL) return null;
+        if (size < 0 || size > in.available()) throw new IOException("invalid collection size");
+        Collection<HumanBeing> humans = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            HumanBeing human = readHuman(in);
+            if (human != null) humans.add(human);
+        }
+        return humans;
+    }
+
+    private static void writeHuman(DataOutputStream out, HumanBeing human) throws IOException {
+        out.writeBoolean(human != null);
+        if (human == null) return;
+        out.writeInt(human.getId());
+        writeString(out, human.getName());
+        out.writeDouble(human.getCoordinates().getX());
+        out.writeDouble(human.getCoordinates().getY());
+        out.writeLong(human.getCreationDate() == null ? Long.MIN_VALUE : human.getCreationDate().getTime());
+        writeBoolean(out, human.checkRealHero());
+        writeBoolean(out, human.checkHasToothpick());
+        out.writeBoolean(human.getImpactSpeed() != null);
+        if (human.getImpactSpeed() != null) out.writeInt(human.getImpactSpeed());
+        writeString(out, human.getSoundtrackName());
+        out.writeFloat(human.getMinutesOfWaiting());
+        writeEnum(out, human.getWeaponType());
+        out.writeBoolean(human.getCar() != null);
+        if (human.getCar() != null) writeString(out, human.getCar().getName());
+        writeString(out, human.getUserLogin());
+    }
+
+    private static HumanBeing readHuman(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        int id = in.readInt();
+        String name = readString(in);
+        Coordinates coordinates = new Coordinates(in.readDouble(), in.readDouble());
+        long creationDate = in.readLong();
+        Boolean realHero = readBoolean(in);
+        Boolean hasToothpick = readBoolean(in);
+        Integer impactSpeed = in.readBoolean() ? in.readInt() : null;
+        String soundtrackName = Interner.STRINGS.intern(readString(in));
+        float minutesOfWaiting = in.readFloat();
+        WeaponType weaponType = readEnum(in, WeaponType.values());
+        Car car = in.readBoolean() ? Car.of(readString(in)) : null;
+        HumanBeing human = new HumanBeing(name, coordinates, realHero, hasToothpick, impactSpeed, soundtrackName, minutesOfWaiting, weaponType, car);
+        human.setId(id);
+        human.setCreationDate(creationDate == Long.MIN_VALUE ? null : new Date(creationDate));
+        human.setUserLogin(Interner.STRINGS.intern(readString(in)));
+        return human;
+    }
+}
@@ -8,6 +8,10 @@ import java.net.InetSocketAddress;
 
 
 public interface Request extends Serializable {
+    long getId();
+
+    Request setId(long id);
+
     String getStringArg();
 
     HumanBeing getHuman();
@@ -26,12 +30,21 @@ public interface Request extends Serializable {
 
     Request setBroadcastAddress(InetSocketAddress address);
 
+    /**
+     * @return последняя известная клиенту ревизия коллекции, 0 - неизвестна
+     */
+
+    long getRevision();
+
+    Request setRevision(long revision);
+
     enum Status {
         HELLO,
         DEFAULT,
         CONNECTION_TEST,
         SENT_FROM_CLIENT,
         RECEIVED_BY_SERVER,
-        EXIT
+        EXIT,
+        HEARTBEAT
     }
 }
@@ -4,11 +4,14 @@ import common.data.HumanBeing;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Map;
 
 public interface Response extends Serializable {
 
     String getMessage();
 
+    long getRequestId();
+
     Status getStatus();
 
     public Collection<HumanBeing> getCollection();
@@ -19,9 +22,28 @@ public interface Response extends Serializable {
         EXIT,
         AUTH_SUCCESS,
         BROADCAST,
-        COLLECTION
+        COLLECTION,
+        BUSY
     }
 
     CollectionOperation getCollectionOperation();
 
+    /**
+     * @return изменения коллекции, сгруппированные по операциям и применяемые по порядку
+     */
+
+    Map<CollectionOperation, Collection<HumanBeing>> getChanges();
+
+    /**
+     * @return ревизия коллекции после применения изменений, 0 - не указана
+     */
+
+    long getRevision();
+
+    /**
+     * @return ревизия, к которой применимы изменения
+     */
+
+    long getBaseRevision();
+
 }
@@ -0,0 +1,103 @@
+package common.connection;
+
+import common.exceptions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * TCP: сообщения передаются кадрами с длиной; размер сообщения не ограничен размером датаграммы,
+ * доставку и порядок обеспечивает сам протокол, поэтому по таймауту ничего не переотправляется.
+ */
+
+public class StreamTransport implements Transport {
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final FrameReader reader;
+    private final Queue<byte[]> received;
+    private final byte[] buffer;
+    private volatile byte[] lastMessage;
+
+    /**
+     * @param timeout время ожидания данных в миллисекундах
+     */
+
+    public StreamTransport(InetSocketAddress server, int timeout) throws ConnectionException {
+        reader = new FrameReader();
+        received = new ArrayDeque<>();
+        buffer = new byte[SenderReceiver.BUFFER_SIZE];
+        try {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(server, timeout);
+            socket.setSoTimeout(timeout);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        } catch (IOException e) {
+            throw new ConnectionException("не удалось подключиться к серверу");
+        }
+    }
+
+    @Override
+    public void send(byte[] message) throws ConnectionException {
+        lastMessage = message;
+        post(message);
+    }
+
+    @Override
+    public void post(byte[] message) throws ConnectionException {
+        try {
+            synchronized (out) {
+                out.write(FrameReader.frame(message));
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new ConnectionException("что-то пошло не так при отправке запроса");
+        }
+    }
+
+    @Override
+    public void retransmit() throws ConnectionException {
+        if (lastMessage != null) post(lastMessage);
+    }
+
+    @Override
+    public byte[] receive(int attempts) throws ConnectionException, InvalidDataException {
+        while (received.isEmpty()) {
+            int count;
+            try {
+                count = in.read(buffer);
+            } catch (SocketTimeoutException e) {
+                if (attempts-- == 0) throw new ConnectionTimeoutException();
+                continue;
+            } catch (IOException e) {
+                if (socket.isClosed()) throw new ClosedConnectionException();
+                throw new ConnectionException("что-то пошло не так при получении ответа");
+            }
+            if (count < 0) throw new ClosedConnectionException();
+            received.addAll(reader.read(ByteBuffer.wrap(buffer, 0, count)));
+        }
+        return received.poll();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
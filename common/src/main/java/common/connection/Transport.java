@@ -0,0 +1,50 @@
+package common.connection;
+
+import common.exceptions.ConnectionException;
+import common.exceptions.InvalidDataException;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+
+/**
+ * Канал обмена сообщениями с сервером.
+ * Сообщения передаются целиком: нарезка на датаграммы или кадры - забота реализации.
+ */
+
+public interface Transport extends Closeable {
+
+    /**
+     * Отправляет сообщение и запоминает его для повторной отправки.
+     */
+
+    void send(byte[] message) throws ConnectionException;
+
+    /**
+     * Отправляет сообщение без ожидания ответа; для повторной отправки оно не запоминается.
+     */
+
+    void post(byte[] message) throws ConnectionException;
+
+    /**
+     * Повторно отправляет последнее сообщение, переданное в {@link #send(byte[])}.
+     */
+
+    void retransmit() throws ConnectionException;
+
+    /**
+     * Ожидает следующее сообщение.
+     *
+     * @param attempts число ожиданий по таймауту, отрицательное - без ограничения
+     */
+
+    byte[] receive(int attempts) throws ConnectionException, InvalidDataException;
+
+    /**
+     * @return адрес, по которому сервер видит этот канал
+     */
+
+    InetSocketAddress getLocalAddress();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,44 @@
+package common.connection;
+
+import common.exceptions.ConnectionException;
+
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+/**
+ * Доступные транспорты.
+ */
+
+public enum TransportType {
+    /**
+     * Датаграммы с фрагментацией и дозапросом потерянных фрагментов
+     */
+    UDP,
+    /**
+     * Поток с кадрами, предваряемыми длиной; без ограничения на размер сообщения
+     */
+    TCP;
+
+    /**
+     * Открывает клиентский канал к серверу
+     *
+     * @param timeout время ожидания одного ответа в миллисекундах
+     */
+
+    public Transport connect(InetSocketAddress server, int timeout) throws ConnectionException {
+        return this == TCP ? new StreamTransport(server, timeout) : new DatagramTransport(server, timeout);
+    }
+
+    /**
+     * @return транспорт по имени без учёта регистра или UDP, если имя не задано
+     */
+
+    public static TransportType parse(String name) throws ConnectionException {
+        if (name == null || name.isBlank()) return UDP;
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ConnectionException("неизвестный транспорт " + name);
+        }
+    }
+}
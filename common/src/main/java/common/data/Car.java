@@ -1,14 +1,29 @@
 package common.data;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public class Car implements Serializable {
+    private static final Interner<Car> CARS = new Interner<>(Interner.DEFAULT_CAPACITY, car -> 16);
+
     private final String name; //Поле может быть null
 
     public Car(String name) {
         this.name = name;
     }
 
+    /**
+     * Общий экземпляр машины с таким названием: машины неизменяемы и часто повторяются.
+     */
+
+    public static Car of(String name) {
+        return CARS.intern(new Car(Interner.STRINGS.intern(name)));
+    }
+
+    public static Interner<Car> getInterner() {
+        return CARS;
+    }
+
     /**
      * @return Название машины.
      */
@@ -22,10 +37,21 @@ public class Car implements Serializable {
         return name;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null || getClass() != obj.getClass()) return false;
+        return Objects.equals(name, ((Car) obj).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(name);
+    }
+
     public boolean validate() {
         return (
                 (name == null || (!name.equals("") && !(name.length() > 1237)))
         );
     }
 
-}
\ No newline at end of file
+}
@@ -67,7 +67,7 @@ public class HumanBeing implements Collectionable, Serializable {
     }
 
     /**
-     * Компаратор для сортировки.
+     * Компаратор для сортировки: по x, затем по y, затем по id.
      */
 
     public static class SortingComparator implements Comparator<HumanBeing> {
@@ -76,6 +76,9 @@ public class HumanBeing implements Collectionable, Serializable {
             if (result == 0) {
                 result = Double.compare(first.getCoordinates().getY(), second.getCoordinates().getY());
             }
+            if (result == 0) {
+                result = Integer.compare(first.getId(), second.getId());
+            }
             return result;
         }
     }
@@ -0,0 +1,94 @@
+package common.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToIntFunction;
+
+/**
+ * Ограниченный словарь общих экземпляров для повторяющихся значений (логины, названия саундтреков, машины).
+ * Таблица прямого отображения фиксированного размера: значение попадает в ячейку по хешу
+ * и вытесняет прежнее при коллизии, поэтому память не растёт, а блокировки не нужны.
+ */
+
+public class Interner<T> {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Общий словарь строк для загрузки из базы и разбора сообщений
+     */
+
+    public static final Interner<String> STRINGS = new Interner<>(DEFAULT_CAPACITY, Interner::stringFootprint);
+
+    private final AtomicReferenceArray<T> table;
+    private final int mask;
+    private final ToIntFunction<T> footprint;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * @param capacity  число ячеек, округляется вверх до степени двойки
+     * @param footprint примерный размер значения в байтах, для оценки сэкономленной памяти
+     */
+
+    public Interner(int capacity, ToIntFunction<T> footprint) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        this.footprint = footprint;
+    }
+
+    /**
+     * @return ранее сохранённый равный экземпляр или сам value
+     */
+
+    public T intern(T value) {
+        if (value == null) return null;
+        int h = value.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        T cached = table.get(slot);
+        if (cached != null && cached.equals(value)) {
+            hits.incrementAndGet();
+            savedBytes.addAndGet(footprint.applyAsInt(value));
+            return cached;
+        }
+        table.set(slot, value);
+        misses.incrementAndGet();
+        return value;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    /**
+     * @return сколько байт не было удержано благодаря повторному использованию, по оценке
+     */
+
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * Заголовок строки и массива плюс по два байта на символ
+     */
+
+    static int stringFootprint(String s) {
+        return 40 + 2 * s.length();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("попаданий: %.1f%% (%d из %d), сэкономлено: %d КБ",
+                getHitRate() * 100, getHits(), getHits() + getMisses(), getSavedBytes() / 1024);
+    }
+}
@@ -4,4 +4,8 @@ public class CannotAddException extends CollectionException {
     public CannotAddException() {
         super("[CannotAddException] unable to add");
     }
+
+    public CannotAddException(String reason) {
+        super("[CannotAddException] unable to add, " + reason);
+    }
 }
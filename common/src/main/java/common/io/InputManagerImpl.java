@@ -120,7 +120,7 @@ public abstract class InputManagerImpl implements InputManager {
         if (name.equals("")) {
             return null;
         }
-        return new Car(name);
+        return Car.of(name);
     }
 
     public float readMinutesOfWaiting() throws InvalidNumberException {
@@ -10,4 +10,14 @@ public class Parser {
             throw new InvalidNumberException();
         }
     }
+
+    public static double parseDouble(String s) throws InvalidNumberException {
+        try {
+            double value = Double.parseDouble(s);
+            if (Double.isNaN(value) || Double.isInfinite(value)) throw new InvalidNumberException();
+            return value;
+        } catch (NumberFormatException e) {
+            throw new InvalidNumberException();
+        }
+    }
 }
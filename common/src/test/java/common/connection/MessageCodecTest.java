@@ -0,0 +1,55 @@
+package common.connection;
+
+import common.exceptions.InvalidReceivedDataException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+    private static final String LONG_MESSAGE = "сообщение ".repeat(1000);
+
+    @AfterEach
+    void restoreThreshold() {
+        MessageCodec.setCompressionThreshold(MessageCodec.DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    @Test
+    void compressedResponseRoundTrip() throws Exception {
+        byte[] data = MessageCodec.encode(new AnswerMsg().info(LONG_MESSAGE).setStatus(Response.Status.FINE));
+        assertNotEquals(0, data[4] & MessageCodec.FLAG_DEFLATE);
+        Response response = MessageCodec.decodeResponse(data, data.length);
+        assertEquals(LONG_MESSAGE, response.getMessage());
+    }
+
+    @Test
+    void truncatedStreamIsRejected() {
+        byte[] data = MessageCodec.encode(new AnswerMsg().info(LONG_MESSAGE).setStatus(Response.Status.FINE));
+        byte[] truncated = Arrays.copyOf(data, data.length - 20);
+        assertThrows(InvalidReceivedDataException.class, () -> MessageCodec.decodeResponse(truncated, truncated.length));
+    }
+
+    @Test
+    void streamWithDictionaryIsRejected() {
+        MessageCodec.setCompressionThreshold(0);
+        byte[] plain = MessageCodec.encode(new AnswerMsg().info(LONG_MESSAGE).setStatus(Response.Status.FINE));
+        int bodyLength = plain.length - MessageCodec.HEADER_SIZE;
+        Deflater deflater = new Deflater();
+        deflater.setDictionary("сообщение".getBytes());
+        deflater.setInput(plain, MessageCodec.HEADER_SIZE, bodyLength);
+        deflater.finish();
+        byte[] compressed = new byte[plain.length + 64];
+        int compressedLength = deflater.deflate(compressed);
+        deflater.end();
+
+        ByteBuffer message = ByteBuffer.allocate(MessageCodec.HEADER_SIZE + 4 + compressedLength);
+        message.put(plain, 0, MessageCodec.HEADER_SIZE).putInt(bodyLength).put(compressed, 0, compressedLength);
+        byte[] data = message.array();
+        data[4] |= MessageCodec.FLAG_DEFLATE;
+        assertThrows(InvalidReceivedDataException.class, () -> MessageCodec.decodeResponse(data, data.length));
+    }
+}
@@ -0,0 +1,415 @@
+package collection;
+
+import common.data.Car;
+import common.data.Coordinates;
+import common.data.HumanBeing;
+import common.data.WeaponType;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Неизменяемая поколоночная таблица элементов коллекции.
+ * Строки разбиты на блоки по 32; в блоке каждое поле лежит в своём примитивном массиве,
+ * логические поля - в битовых масках блока, повторяющиеся строки (саундтрек, машина, владелец)
+ * заменены номерами из общего словаря. Имена почти всегда различны, поэтому хранятся как есть.
+ * Блоки собраны в префиксное дерево по 32 ссылки на узел; изменение строки копирует один блок
+ * и путь к нему, остальное общее с прежней версией. Освободившиеся строки используются повторно.
+ * {@link HumanBeing} создаётся только при выдаче строки наружу.
+ */
+
+public final class ColumnStore {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final int NONE = -1;
+    private static final int NULL_NAME = -2;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final WeaponType[] WEAPON_TYPES = WeaponType.values();
+    private static final ColumnStore EMPTY = new ColumnStore(new Object[WIDTH], 1, 0, 0, null, Dictionary.EMPTY);
+
+    private final Object[] root;
+    private final int levels;
+    private final int rows;
+    private final int size;
+    private final FreeRow free;
+    private final Dictionary strings;
+
+    private ColumnStore(Object[] root, int levels, int rows, int size, FreeRow free, Dictionary strings) {
+        this.root = root;
+        this.levels = levels;
+        this.rows = rows;
+        this.size = size;
+        this.free = free;
+        this.strings = strings;
+    }
+
+    static ColumnStore empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return номер строки, которую займёт следующий {@link #insert}
+     */
+
+    int nextRow() {
+        return free == null ? rows : free.row;
+    }
+
+    /**
+     * Записывает элемент в строку {@link #nextRow()}
+     *
+     * @param position позиция элемента в порядке добавления
+     */
+
+    ColumnStore insert(HumanBeing human, long position) {
+        int row = nextRow();
+        Dictionary dictionary = strings.retain(human.getSoundtrackName());
+        if (human.getCar() != null) dictionary = dictionary.retain(human.getCar().getName());
+        dictionary = dictionary.retain(human.getUserLogin());
+        Chunk chunk = chunk(row);
+        chunk = chunk == null ? new Chunk() : chunk.copy();
+        chunk.write(row & MASK, human, position, dictionary);
+        ColumnStore grown = row >>> BITS < capacity() ? this : new ColumnStore(grow(), levels + 1, rows, size, free, strings);
+        return new ColumnStore(grown.set(row >>> BITS, chunk), grown.levels, free == null ? rows + 1 : rows, size + 1,
+                free == null ? null : free.next, dictionary);
+    }
+
+    /**
+     * Освобождает строку и ссылки словаря на её строки
+     */
+
+    ColumnStore delete(int row) {
+        Chunk chunk = chunk(row).copy();
+        int i = row & MASK;
+        Dictionary dictionary = strings.release(chunk.soundtracks[i]).release(chunk.cars[i]).release(chunk.owners[i]);
+        chunk.clear(i);
+        return new ColumnStore(set(row >>> BITS, chunk), levels, rows, size - 1, new FreeRow(row, free), dictionary);
+    }
+
+    public int id(int row) {
+        return chunk(row).ids[row & MASK];
+    }
+
+    long position(int row) {
+        return chunk(row).positions[row & MASK];
+    }
+
+    public String name(int row) {
+        return chunk(row).names[row & MASK];
+    }
+
+    public double x(int row) {
+        return chunk(row).xs[row & MASK];
+    }
+
+    public double y(int row) {
+        return chunk(row).ys[row & MASK];
+    }
+
+    /**
+     * @return время создания в миллисекундах; у элемента без даты меньше, чем у любого другого
+     */
+
+    public long creationDate(int row) {
+        return chunk(row).creationDates[row & MASK];
+    }
+
+    public boolean hasImpactSpeed(int row) {
+        return (chunk(row).nullSpeeds & 1 << (row & MASK)) == 0;
+    }
+
+    public int impactSpeed(int row) {
+        return chunk(row).impactSpeeds[row & MASK];
+    }
+
+    /**
+     * @return элемент, собранный из строки
+     */
+
+    public HumanBeing get(int row) {
+        Chunk chunk = chunk(row);
+        int i = row & MASK;
+        int bit = 1 << i;
+        int car = chunk.cars[i];
+        HumanBeing human = new HumanBeing(chunk.names[i], new Coordinates(chunk.xs[i], chunk.ys[i]),
+                (chunk.nullHeroes & bit) != 0 ? null : (chunk.realHeroes & bit) != 0,
+                (chunk.nullToothpicks & bit) != 0 ? null : (chunk.toothpicks & bit) != 0,
+                (chunk.nullSpeeds & bit) != 0 ? null : chunk.impactSpeeds[i], strings.decode(chunk.soundtracks[i]),
+                chunk.minutesOfWaiting[i], chunk.weaponTypes[i] == NONE ? null : WEAPON_TYPES[chunk.weaponTypes[i]],
+                car == NONE ? null : Car.of(car == NULL_NAME ? null : strings.decode(car)));
+        human.setId(chunk.ids[i]);
+        human.setCreationDate(chunk.creationDates[i] == NO_DATE ? null : new Date(chunk.creationDates[i]));
+        human.setUserLogin(strings.decode(chunk.owners[i]));
+        return human;
+    }
+
+    /**
+     * Проходит по маскам занятых строк блок за блоком
+     */
+
+    void forEachRow(IntConsumer action) {
+        for (int first = 0; first < rows; first += WIDTH) {
+            Chunk chunk = chunk(first);
+            if (chunk == null) continue;
+            for (int used = chunk.used; used != 0; used &= used - 1) action.accept(first + Integer.numberOfTrailingZeros(used));
+        }
+    }
+
+    /**
+     * Сначала по словарю находятся номера подходящих названий, затем столбец номеров
+     * просматривается циклом без обращения к строкам.
+     *
+     * @return элементы, у которых название саундтрека начинается с prefix
+     */
+
+    public List<HumanBeing> filterStartsWithSoundtrack(String prefix) {
+        BitSet codes = strings.startingWith(prefix);
+        List<HumanBeing> result = new ArrayList<>();
+        if (codes.isEmpty()) return result;
+        for (int first = 0; first < rows; first += WIDTH) {
+            Chunk chunk = chunk(first);
+            if (chunk == null) continue;
+            for (int used = chunk.used; used != 0; used &= used - 1) {
+                int i = Integer.numberOfTrailingZeros(used);
+                int code = chunk.soundtracks[i];
+                if (code >= 0 && codes.get(code)) result.add(get(first + i));
+            }
+        }
+        return result;
+    }
+
+    private Chunk chunk(int row) {
+        int index = row >>> BITS;
+        if (index >= capacity()) return null;
+        Object[] node = root;
+        for (int level = levels - 1; level > 0; level--) {
+            node = (Object[]) node[index >>> (BITS * level) & MASK];
+            if (node == null) return null;
+        }
+        return (Chunk) node[index & MASK];
+    }
+
+    private int capacity() {
+        return levels * BITS >= 31 ? Integer.MAX_VALUE : 1 << (BITS * levels);
+    }
+
+    private Object[] grow() {
+        Object[] grown = new Object[WIDTH];
+        grown[0] = root;
+        return grown;
+    }
+
+    private Object[] set(int index, Chunk chunk) {
+        return set(root, levels - 1, index, chunk);
+    }
+
+    private static Object[] set(Object[] node, int level, int index, Chunk chunk) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int slot = index >>> (BITS * level) & MASK;
+        copy[slot] = level == 0 ? chunk : set((Object[]) copy[slot], level - 1, index, chunk);
+        return copy;
+    }
+
+    /**
+     * Блок из 32 строк. После публикации не меняется: запись идёт в копию.
+     */
+
+    private static final class Chunk {
+        private final int[] ids;
+        private final long[] positions;
+        private final String[] names;
+        private final double[] xs;
+        private final double[] ys;
+        private final long[] creationDates;
+        private final int[] impactSpeeds;
+        private final float[] minutesOfWaiting;
+        private final byte[] weaponTypes;
+        private final int[] soundtracks;
+        private final int[] cars;
+        private final int[] owners;
+        private int used;
+        private int realHeroes;
+        private int toothpicks;
+        private int nullHeroes;
+        private int nullToothpicks;
+        private int nullSpeeds;
+
+        Chunk() {
+            ids = new int[WIDTH];
+            positions = new long[WIDTH];
+            names = new String[WIDTH];
+            xs = new double[WIDTH];
+            ys = new double[WIDTH];
+            creationDates = new long[WIDTH];
+            impactSpeeds = new int[WIDTH];
+            minutesOfWaiting = new float[WIDTH];
+            weaponTypes = new byte[WIDTH];
+            soundtracks = new int[WIDTH];
+            cars = new int[WIDTH];
+            owners = new int[WIDTH];
+        }
+
+        private Chunk(Chunk other) {
+            ids = other.ids.clone();
+            positions = other.positions.clone();
+            names = other.names.clone();
+            xs = other.xs.clone();
+            ys = other.ys.clone();
+            creationDates = other.creationDates.clone();
+            impactSpeeds = other.impactSpeeds.clone();
+            minutesOfWaiting = other.minutesOfWaiting.clone();
+            weaponTypes = other.weaponTypes.clone();
+            soundtracks = other.soundtracks.clone();
+            cars = other.cars.clone();
+            owners = other.owners.clone();
+            used = other.used;
+            realHeroes = other.realHeroes;
+            toothpicks = other.toothpicks;
+            nullHeroes = other.nullHeroes;
+            nullToothpicks = other.nullToothpicks;
+            nullSpeeds = other.nullSpeeds;
+        }
+
+        Chunk copy() {
+            return new Chunk(this);
+        }
+
+        void write(int i, HumanBeing human, long position, Dictionary dictionary) {
+            int bit = 1 << i;
+            used |= bit;
+            ids[i] = human.getId();
+            positions[i] = position;
+            names[i] = human.getName();
+            xs[i] = human.getCoordinates().getX();
+            ys[i] = human.getCoordinates().getY();
+            creationDates[i] = human.getCreationDate() == null ? NO_DATE : human.getCreationDate().getTime();
+            realHeroes = set(realHeroes, bit, Boolean.TRUE.equals(human.checkRealHero()));
+            nullHeroes = set(nullHeroes, bit, human.checkRealHero() == null);
+            toothpicks = set(toothpicks, bit, Boolean.TRUE.equals(human.checkHasToothpick()));
+            nullToothpicks = set(nullToothpicks, bit, human.checkHasToothpick() == null);
+            impactSpeeds[i] = human.getImpactSpeed() == null ? 0 : human.getImpactSpeed();
+            nullSpeeds = set(nullSpeeds, bit, human.getImpactSpeed() == null);
+            minutesOfWaiting[i] = human.getMinutesOfWaiting() == null ? Float.NaN : human.getMinutesOfWaiting();
+            weaponTypes[i] = (byte) (human.getWeaponType() == null ? NONE : human.getWeaponType().ordinal());
+            soundtracks[i] = dictionary.code(human.getSoundtrackName());
+            Car car = human.getCar();
+            cars[i] = car == null ? NONE : car.getName() == null ? NULL_NAME : dictionary.code(car.getName());
+            owners[i] = dictionary.code(human.getUserLogin());
+        }
+
+        void clear(int i) {
+            int bit = ~(1 << i);
+            used &= bit;
+            realHeroes &= bit;
+            toothpicks &= bit;
+            nullHeroes &= bit;
+            nullToothpicks &= bit;
+            nullSpeeds &= bit;
+            names[i] = null;
+        }
+
+        private static int set(int mask, int bit, boolean value) {
+            return value ? mask | bit : mask & ~bit;
+        }
+    }
+
+    /**
+     * Стек освободившихся строк, общий у версий
+     */
+
+    private static final class FreeRow {
+        private final int row;
+        private final FreeRow next;
+
+        FreeRow(int row, FreeRow next) {
+            this.row = row;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Неизменяемый словарь строк с подсчётом ссылок. Номер строки, на которую больше никто
+     * не ссылается, освобождается и достаётся следующей новой строке; старые версии таблицы
+     * продолжают читать через свой словарь.
+     */
+
+    private static final class Dictionary {
+        private static final Dictionary EMPTY = new Dictionary(PersistentTree.empty(Comparator.naturalOrder()),
+                PersistentTree.empty(Comparator.naturalOrder()), PersistentTree.empty(Comparator.naturalOrder()), 0);
+
+        private final PersistentTree<String, Entry> codes;
+        private final PersistentTree<Integer, String> values;
+        private final PersistentTree<Integer, Integer> free;
+        private final int next;
+
+        private Dictionary(PersistentTree<String, Entry> codes, PersistentTree<Integer, String> values,
+                           PersistentTree<Integer, Integer> free, int next) {
+            this.codes = codes;
+            this.values = values;
+            this.free = free;
+            this.next = next;
+        }
+
+        /**
+         * @return номер строки или NONE для null
+         */
+
+        int code(String value) {
+            if (value == null) return NONE;
+            return codes.get(value).code;
+        }
+
+        String decode(int code) {
+            return code < 0 ? null : values.get(code);
+        }
+
+        Dictionary retain(String value) {
+            if (value == null) return this;
+            Entry entry = codes.get(value);
+            if (entry != null) return new Dictionary(codes.put(value, new Entry(entry.code, entry.references + 1)), values, free, next);
+            if (free.isEmpty()) {
+                return new Dictionary(codes.put(value, new Entry(next, 1)), values.put(next, value), free, next + 1);
+            }
+            int code = free.first().getKey();
+            return new Dictionary(codes.put(value, new Entry(code, 1)), values.put(code, value), free.remove(code), next);
+        }
+
+        Dictionary release(int code) {
+            if (code < 0) return this;
+            String value = values.get(code);
+            Entry entry = codes.get(value);
+            if (entry.references > 1) return new Dictionary(codes.put(value, new Entry(code, entry.references - 1)), values, free, next);
+            return new Dictionary(codes.remove(value), values.remove(code), free.put(code, code), next);
+        }
+
+        /**
+         * @return номера строк, начинающихся с prefix: они идут в словаре подряд
+         */
+
+        BitSet startingWith(String prefix) {
+            BitSet result = new BitSet(next);
+            Iterator<Map.Entry<String, Entry>> iterator = codes.iterator(prefix, true, false);
+            while (iterator.hasNext()) {
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (!entry.getKey().startsWith(prefix)) break;
+                result.set(entry.getValue().code);
+            }
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        private final int code;
+        private final int references;
+
+        Entry(int code, int references) {
+            this.code = code;
+            this.references = references;
+        }
+    }
+}
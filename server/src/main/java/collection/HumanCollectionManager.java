@@ -7,54 +7,112 @@ import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 import common.collection.HumanManagerImpl;
 import common.data.HumanBeing;
-import common.exceptions.CannotAddException;
 import common.exceptions.CollectionException;
 import common.exceptions.EmptyCollectionException;
-import common.exceptions.NoSuchIdException;
 import json.*;
 
 import java.lang.reflect.Type;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * Управление коллекцией.
+ * Изменения выполняются по одному и после каждого публикуется новый неизменяемый {@link Snapshot},
+ * из которого без блокировок читают вывод, фильтры и синхронизация клиентов.
+ * Отдельных копий элементов нет: поля хранятся по столбцам в срезе, порядок добавления
+ * и упорядоченные индексы - деревья номеров строк там же, а {@link HumanBeing}
+ * собирается только при выдаче наружу.
  */
 
-public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeque<HumanBeing>> {
-    private Deque<HumanBeing> collection;
+public class HumanCollectionManager extends HumanManagerImpl<Collection<HumanBeing>> {
+    private final AtomicLong nextPosition;
     private final java.time.LocalDateTime initDate;
-    private final Set<Integer> uniqueIds;
+    private final Object writeLock;
+    private volatile Snapshot snapshot;
+    private Snapshot draft;
+    private long version;
+    private int depth;
 
     public HumanCollectionManager() {
-        uniqueIds = new ConcurrentSkipListSet<>();
-        collection = new ConcurrentLinkedDeque<>();
+        nextPosition = new AtomicLong();
         initDate = java.time.LocalDateTime.now();
+        writeLock = new Object();
+        version = System.currentTimeMillis() * 1000;
+        snapshot = Snapshot.empty().withRevision(version);
+        draft = snapshot;
     }
 
-    public int generateNextId() {
-        if (collection.isEmpty())
-            return 1;
-        else {
-            int id = collection.element().getId() + 1;
-            if (uniqueIds.contains(id)) {
-                while (uniqueIds.contains(id)) id += 1;
+    /**
+     * @return черновик внутри изменения, иначе последний опубликованный срез
+     */
+
+    private Snapshot current() {
+        return Thread.holdsLock(writeLock) ? draft : snapshot;
+    }
+
+    /**
+     * @return элементы в порядке добавления; изменять коллекцию нужно через методы менеджера
+     */
+
+    @Override
+    public Collection<HumanBeing> getCollection() {
+        return current().getHumans();
+    }
+
+    /**
+     * @return состояние коллекции после последнего завершённого изменения
+     */
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Выполняет изменение под writeLock. Вложенные изменения публикуются вместе с внешним,
+     * поэтому составная операция получает одну ревизию. Если внешнее изменение завершилось
+     * исключением, черновик отбрасывается и коллекция возвращается к опубликованному срезу.
+     */
+
+    protected void atomically(Runnable change) {
+        synchronized (writeLock) {
+            depth++;
+            boolean completed = false;
+            try {
+                change.run();
+                completed = true;
+            } finally {
+                if (--depth == 0) {
+                    if (completed) publish();
+                    else rollback();
+                }
             }
-            return id;
         }
     }
 
-    @Override
-    public Deque<HumanBeing> getCollection() {
-        return collection;
+    /**
+     * Возвращает черновик к последнему срезу и пересчитывает статистику по нему.
+     * Каждое изменение трогает черновик, поэтому, если черновик не менялся, восстанавливать нечего.
+     */
+
+    private void rollback() {
+        if (draft == snapshot) return;
+        draft = snapshot;
+        getStats().clear();
+        draft.getHumans().forEach(getStats()::add);
     }
 
-    public void sort() {
-        collection = collection.stream().sorted(new HumanBeing.SortingComparator()).collect(Collectors.toCollection(ConcurrentLinkedDeque::new));
+    /**
+     * Делает накопленные изменения видимыми читателям одной новой версией.
+     * Ревизии идут подряд и меняются только вместе с содержимым, журнал изменений сервера
+     * записывает изменения под той же ревизией.
+     */
+
+    private void publish() {
+        if (draft == snapshot) return;
+        snapshot = draft.withRevision(++version);
+        draft = snapshot;
     }
 
     /**
@@ -62,10 +120,10 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public void add(HumanBeing human) {
-        int id = generateNextId();
-        uniqueIds.add(id);
-        human.setId(id);
-        collection.add(human);
+        atomically(() -> {
+            human.setId(generateNextId());
+            addWithoutIdGeneration(human);
+        });
     }
 
     /**
@@ -73,7 +131,7 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public String getInfo() {
-        return "Информация о коллекции, размер: " + collection.size() + ", дата инициализации: " + initDate.toString();
+        return "Информация о коллекции, размер: " + getSize() + ", дата инициализации: " + initDate.toString();
     }
 
     /**
@@ -81,37 +139,34 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public boolean checkID(Integer ID) {
-        return uniqueIds.contains(ID);
+        return current().contains(ID);
     }
 
+    @Override
+    protected HumanBeing findByID(Integer id) {
+        return current().find(id);
+    }
 
     public void removeByID(Integer id) {
-        assertNotEmpty();
-        Optional<HumanBeing> human = collection.stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
-            throw new NoSuchIdException(id);
-        }
-        collection.remove(human.get());
-        uniqueIds.remove(id);
+        atomically(() -> {
+            getStats().remove(getByID(id));
+            draft = draft.without(id);
+        });
     }
 
     /**
-     * Обновить элемент по идентификатору.
+     * Обновить элемент по идентификатору. Элемент остаётся на своей позиции.
      */
 
     public void updateByID(Integer id, HumanBeing newHuman) {
-        assertNotEmpty();
-        Optional<HumanBeing> human = collection.stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
-            throw new NoSuchIdException(id);
-        }
-        collection.remove(human.get());
-        newHuman.setId(id);
-        collection.add(newHuman);
+        atomically(() -> {
+            HumanBeing human = getByID(id);
+            long position = draft.positionOf(id);
+            newHuman.setId(id);
+            getStats().remove(human);
+            draft = draft.without(id).with(position, newHuman);
+            getStats().add(newHuman);
+        });
     }
 
     /**
@@ -119,7 +174,7 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public int getSize() {
-        return collection.size();
+        return current().size();
     }
 
     /**
@@ -127,8 +182,10 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public void clear() {
-        collection.clear();
-        uniqueIds.clear();
+        atomically(() -> {
+            if (!draft.isEmpty()) draft = Snapshot.empty();
+            getStats().clear();
+        });
     }
 
 
@@ -137,95 +194,34 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public void removeFirst() {
-        assertNotEmpty();
-        int id = collection.getFirst().getId();
-        collection.removeFirst();
-        uniqueIds.remove(id);
+        atomically(() -> {
+            assertNotEmpty();
+            removeByID(draft.getHumans().iterator().next().getId());
+        });
     }
 
-    /**
-     * Добавить, если идентификатор элемента больше максимального в коллекции.
-     */
-
-    public void addIfMax(HumanBeing human) {
-        if (collection.stream()
-                .max(HumanBeing::compareTo)
-                .filter(h -> h.compareTo(human) > 0)
-                .isPresent()) {
-            throw new CannotAddException();
-        }
-        add(human);
-    }
-
-    /**
-     * Добавить, если идентификатор элемента меньше минимального в коллекции.
-     */
-
-    public void addIfMin(HumanBeing human) {
-        if (collection.stream()
-                .min(HumanBeing::compareTo)
-                .filter(h -> h.compareTo(human) < 0)
-                .isPresent()) {
-            throw new CannotAddException();
-        }
-        add(human);
-    }
-
-    /**
-     * Вывести элементы коллекции имя которых начинается с заданного значения
-     */
-    public List<HumanBeing> filterStartsWithName(String start) {
-        assertNotEmpty();
-        return collection.stream()
-                .filter(w -> w.getName().startsWith(start.trim()))
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Вывести список уникальных значений скорости
-     */
-
-    public List<Integer> getUniqueImpactSpeed() {
-        assertNotEmpty();
-        List<Integer> impactSpeed;
-        impactSpeed = collection.stream()
-                .map(HumanBeing::getImpactSpeed)
-                .distinct()
-                .collect(Collectors.toList());
-        return impactSpeed;
-    }
-
-    public HumanBeing getByID(Integer id) {
-        assertNotEmpty();
-        Optional<HumanBeing> human = collection.stream()
-                .filter(h -> h.getId() == id)
-                .findFirst();
-        if (human.isEmpty()) {
-            throw new NoSuchIdException(id);
-        }
-        return human.get();
-    }
-
-        protected Collection<HumanBeing> getAll(Collection<Integer> ids){
+    protected Collection<HumanBeing> getAll(Collection<Integer> ids){
         Iterator<Integer> iterator = ids.iterator();
         Collection<HumanBeing> selected = new HashSet<>();
         while (iterator.hasNext()){
-            Integer id = iterator.next();
-            selected.addAll(collection.stream().filter(h->h.getId()==id).collect(Collectors.toCollection(HashSet::new)));
+            HumanBeing human = findByID(iterator.next());
+            if (human != null) selected.add(human);
             iterator.remove();
         }
         return selected;
     }
     protected void removeAll(Collection<Integer> ids) {
-        Iterator<Integer> iterator = ids.iterator();
-        while (iterator.hasNext()) {
-            Integer id = iterator.next();
-            collection.removeIf(human -> human.getId() == id);
-            iterator.remove();
-        }
+        atomically(() -> {
+            Iterator<Integer> iterator = ids.iterator();
+            while (iterator.hasNext()) {
+                Integer id = iterator.next();
+                if (checkID(id)) removeByID(id);
+                iterator.remove();
+            }
+        });
     }
     public void assertNotEmpty() {
-        if (collection.isEmpty()) throw new EmptyCollectionException();
+        if (current().isEmpty()) throw new EmptyCollectionException();
     }
 
     /**
@@ -234,18 +230,20 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
 
     public void deserializeCollection(String json) {
         try {
-            if (json == null || json.equals("")) {
-                collection = new ConcurrentLinkedDeque<>();
-            } else {
-                Type collectionType = new TypeToken<Queue<HumanBeing>>() {
-                }.getType();
-                Gson gson = new GsonBuilder()
-                        .registerTypeAdapter(LocalDate.class, new LocalDateDeserializer())
-                        .registerTypeAdapter(Date.class, new DateDeserializer())
-                        .registerTypeAdapter(collectionType, new CollectionDeserializer(uniqueIds))
-                        .create();
-                collection = gson.fromJson(json.trim(), collectionType);
-            }
+            atomically(() -> {
+                clear();
+                if (json != null && !json.equals("")) {
+                    Type collectionType = new TypeToken<Queue<HumanBeing>>() {
+                    }.getType();
+                    Gson gson = new GsonBuilder()
+                            .registerTypeAdapter(LocalDate.class, new LocalDateDeserializer())
+                            .registerTypeAdapter(Date.class, new DateDeserializer())
+                            .registerTypeAdapter(collectionType, new CollectionDeserializer(new HashSet<>()))
+                            .create();
+                    Queue<HumanBeing> humans = gson.fromJson(json.trim(), collectionType);
+                    humans.forEach(this::addWithoutIdGeneration);
+                }
+            });
         } catch (JsonParseException e) {
             throw new CollectionException("Не удалось загрузить.");
         }
@@ -256,20 +254,131 @@ public class HumanCollectionManager extends HumanManagerImpl<ConcurrentLinkedDeq
      */
 
     public String serializeCollection() {
-        if (collection == null || collection.isEmpty()) return "";
+        Collection<HumanBeing> collection = current().getHumans();
+        if (collection.isEmpty()) return "";
         Gson gson = new GsonBuilder()
                 .registerTypeAdapter(LocalDate.class, new LocalDateSerializer())
                 .registerTypeAdapter(Date.class, new DateSerializer())
                 .setPrettyPrinting().create();
-        return gson.toJson(collection);
+        return gson.toJson(new ArrayList<>(collection));
     }
 
+    /**
+     * Элемент с тем же id, если он был, заменяется
+     */
+
     protected void addWithoutIdGeneration(HumanBeing human) {
-        uniqueIds.add(human.getId());
-        collection.add(human);
+        atomically(() -> {
+            getIdAllocator().advancePast(human.getId());
+            if (draft.contains(human.getId())) removeByID(human.getId());
+            draft = draft.with(nextPosition.getAndIncrement(), human);
+            getStats().add(human);
+        });
+    }
+
+    /**
+     * @return элементы по возрастанию координат из текущего среза
+     */
+
+    @Override
+    public Collection<HumanBeing> getSorted() {
+        return snapshot.getSorted();
+    }
+
+    @Override
+    protected Integer maxImpactSpeed() {
+        return snapshot.getMaxImpactSpeed();
+    }
+
+    @Override
+    protected Integer minImpactSpeed() {
+        return snapshot.getMinImpactSpeed();
+    }
+
+    /**
+     * Вывести элементы коллекции имя которых начинается с заданного значения
+     */
+
+    @Override
+    public List<HumanBeing> filterStartsWithName(String start) {
+        Snapshot current = snapshot;
+        if (current.isEmpty()) throw new EmptyCollectionException();
+        return current.filterStartsWithName(start.trim());
+    }
+
+    /**
+     * Вывести элементы, название саундтрека которых начинается с заданного значения
+     */
+
+    @Override
+    public List<HumanBeing> filterStartsWithSoundtrack(String start) {
+        Snapshot current = snapshot;
+        if (current.isEmpty()) throw new EmptyCollectionException();
+        return current.filterStartsWithSoundtrack(start.trim());
+    }
+
+    /**
+     * Вывести список уникальных значений скорости
+     */
+
+    @Override
+    public List<Integer> getUniqueImpactSpeed() {
+        Snapshot current = snapshot;
+        if (current.isEmpty()) throw new EmptyCollectionException();
+        return current.getUniqueImpactSpeed();
+    }
+
+    /**
+     * Вывести элементы, координаты которых лежат в прямоугольнике
+     */
+
+    public List<HumanBeing> filterInBox(double x1, double y1, double x2, double y2) {
+        Snapshot current = snapshot;
+        if (current.isEmpty()) throw new EmptyCollectionException();
+        return current.filterInBox(x1, y1, x2, y2);
+    }
+
+    /**
+     * Вывести k элементов, ближайших к точке
+     */
+
+    public List<HumanBeing> getNearest(double x, double y, int k) {
+        Snapshot current = snapshot;
+        if (current.isEmpty()) throw new EmptyCollectionException();
+        return current.getNearest(x, y, k);
+    }
+
+    /**
+     * Страница коллекции в заданном порядке из текущего среза. Элементы берутся из заранее
+     * упорядоченного дерева, поэтому время зависит только от размера страницы.
+     *
+     * @param cursor курсор предыдущей страницы или null для первой
+     */
+
+    public Page getPage(SortKey key, boolean descending, int size, Page.Cursor cursor) {
+        return snapshot.getPage(key, descending, size, cursor);
     }
 
+    /**
+     * @return занятые id; изменяются вместе с коллекцией
+     */
+
     public Set<Integer> getUniqueIds() {
-        return uniqueIds;
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                return current().getIds().iterator();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Integer && checkID((Integer) o);
+            }
+
+            @Override
+            public int size() {
+                return getSize();
+            }
+        };
     }
 }
\ No newline at end of file
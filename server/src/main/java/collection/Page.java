@@ -0,0 +1,103 @@
+package collection;
+
+import common.data.HumanBeing;
+import common.exceptions.InvalidCommandArgumentException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Страница упорядоченной коллекции и курсор для получения следующей.
+ */
+
+public class Page {
+    private final List<HumanBeing> humans;
+    private final Cursor next;
+    private final int total;
+
+    Page(List<HumanBeing> humans, Cursor next, int total) {
+        this.humans = humans;
+        this.next = next;
+        this.total = total;
+    }
+
+    public List<HumanBeing> getHumans() {
+        return humans;
+    }
+
+    /**
+     * @return курсор следующей страницы или null, если страница последняя
+     */
+
+    public Cursor getNext() {
+        return next;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Позиция в упорядоченной коллекции: порядок, размер страницы и последний выданный элемент.
+     * Клиенту передаётся в виде непрозрачной строки.
+     */
+
+    public static class Cursor {
+        private final SortKey key;
+        private final boolean descending;
+        private final int size;
+        private final int lastId;
+        private final String lastValue;
+
+        Cursor(SortKey key, boolean descending, int size, HumanBeing last) {
+            this(key, descending, size, last.getId(), key.valueOf(last));
+        }
+
+        private Cursor(SortKey key, boolean descending, int size, int lastId, String lastValue) {
+            this.key = key;
+            this.descending = descending;
+            this.size = size;
+            this.lastId = lastId;
+            this.lastValue = lastValue;
+        }
+
+        public SortKey getKey() {
+            return key;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * @return элемент для поиска позиции, с которой продолжается вывод
+         */
+
+        HumanBeing getLast() {
+            return key.probe(lastValue, lastId);
+        }
+
+        public String encode() {
+            String s = key.name() + ":" + (descending ? "desc" : "asc") + ":" + size + ":" + lastId + ":" + lastValue;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public static Cursor decode(String s) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(s), StandardCharsets.UTF_8).split(":", 5);
+                if (parts.length != 5) throw new IllegalArgumentException();
+                SortKey key = SortKey.valueOf(parts[0]);
+                Cursor cursor = new Cursor(key, parts[1].equals("desc"), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), parts[4]);
+                cursor.getLast();
+                return cursor;
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new InvalidCommandArgumentException("неверный курсор");
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package collection;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Неизменяемое сжатое дерево квадрантов с номерами строк {@link ColumnStore} в точках (x, y).
+ * Координаты переводятся в 64-битные ключи с тем же порядком, что у double, и хранятся в листьях
+ * рядом с номерами строк, так что запросы не обращаются к таблице. Узел глубины d
+ * делит свою область по (d+1)-му старшему биту обоих ключей. Узлы с одним непустым потомком
+ * не хранятся, поэтому глубина не зависит от масштаба координат.
+ * Изменение возвращает новое дерево, копируя только путь от корня до изменённого листа.
+ */
+
+public final class PersistentQuadTree {
+    private static final int LEAF_CAPACITY = 8;
+    private static final PersistentQuadTree EMPTY = new PersistentQuadTree(null);
+
+    private final Node root;
+
+    private PersistentQuadTree(Node root) {
+        this.root = root;
+    }
+
+    public static PersistentQuadTree empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return root == null ? 0 : root.size;
+    }
+
+    /**
+     * @param row номер строки таблицы, лежащей в точке (x, y)
+     */
+
+    public PersistentQuadTree add(int row, double x, double y) {
+        return new PersistentQuadTree(add(root, row, key(x), key(y)));
+    }
+
+    /**
+     * Удаляет строку, лежащую в точке (x, y)
+     */
+
+    public PersistentQuadTree remove(int row, double x, double y) {
+        Node updated = remove(root, row, key(x), key(y));
+        return updated == root ? this : new PersistentQuadTree(updated);
+    }
+
+    /**
+     * Спускается только в квадранты, пересекающие прямоугольник; квадранты целиком внутри него
+     * выдаются без проверок.
+     *
+     * @return строки в прямоугольнике вместе с границами
+     */
+
+    public int[] inBox(double x1, double y1, double x2, double y2) {
+        Box box = new Box(key(Math.min(x1, x2)), key(Math.max(x1, x2)), key(Math.min(y1, y2)), key(Math.max(y1, y2)));
+        IntStream.Builder result = IntStream.builder();
+        if (root != null) inBox(root, box, result);
+        return result.build().toArray();
+    }
+
+    /**
+     * Поиск по возрастанию расстояния: из очереди берётся ближайший квадрант или строка,
+     * квадрант заменяется своими потомками, пока не набрано k строк.
+     *
+     * @return до k ближайших к точке строк по возрастанию расстояния
+     */
+
+    public int[] nearest(double x, double y, int k) {
+        IntStream.Builder result = IntStream.builder();
+        int found = 0;
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(Comparator.comparingDouble(candidate -> candidate.distance));
+        if (root != null) expand(root, x, y, queue);
+        while (found < k && !queue.isEmpty()) {
+            Candidate candidate = queue.poll();
+            if (candidate.node != null) {
+                expand(candidate.node, x, y, queue);
+            } else {
+                result.add(candidate.row);
+                found++;
+            }
+        }
+        return result.build().toArray();
+    }
+
+    private void expand(Node node, double x, double y, PriorityQueue<Candidate> queue) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.rows.length; i++) {
+                queue.add(new Candidate(null, node.rows[i], Math.hypot(value(node.xs[i]) - x, value(node.ys[i]) - y)));
+            }
+            return;
+        }
+        for (Node child : node.children) {
+            if (child == null) continue;
+            if (child.isLeaf()) expand(child, x, y, queue);
+            else queue.add(new Candidate(child, -1, child.distance(x, y)));
+        }
+    }
+
+    private void inBox(Node node, Box box, IntStream.Builder result) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.rows.length; i++) {
+                if (box.contains(node.xs[i], node.ys[i])) result.add(node.rows[i]);
+            }
+            return;
+        }
+        long lowX = node.lowX(), highX = node.highX(), lowY = node.lowY(), highY = node.highY();
+        if (!box.intersects(lowX, highX, lowY, highY)) return;
+        if (box.contains(lowX, lowY) && box.contains(highX, highY)) {
+            collect(node, result);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) inBox(child, box, result);
+        }
+    }
+
+    private static void collect(Node node, IntStream.Builder result) {
+        if (node.isLeaf()) {
+            for (int row : node.rows) result.add(row);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) collect(child, result);
+        }
+    }
+
+    private static void collect(Node node, Leaf result) {
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.rows.length; i++) result.add(node.rows[i], node.xs[i], node.ys[i]);
+            return;
+        }
+        for (Node child : node.children) {
+            if (child != null) collect(child, result);
+        }
+    }
+
+    private Node add(Node node, int row, long x, long y) {
+        if (node == null) return new Node(new int[]{row}, new long[]{x}, new long[]{y});
+        if (node.isLeaf()) {
+            Leaf items = new Leaf(node.rows.length + 1);
+            collect(node, items);
+            items.add(row, x, y);
+            return items.size <= LEAF_CAPACITY ? items.toNode() : build(items);
+        }
+        int common = commonDepth(node.x, node.y, x, y);
+        if (common < node.depth) {
+            Node[] children = new Node[4];
+            children[quadrant(node.x, node.y, common)] = node;
+            children[quadrant(x, y, common)] = new Node(new int[]{row}, new long[]{x}, new long[]{y});
+            return new Node(node.x, node.y, common, children, node.size + 1);
+        }
+        Node[] children = node.children.clone();
+        int quadrant = quadrant(x, y, node.depth);
+        children[quadrant] = add(children[quadrant], row, x, y);
+        return new Node(node.x, node.y, node.depth, children, node.size + 1);
+    }
+
+    private Node remove(Node node, int row, long x, long y) {
+        if (node == null) return null;
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.rows.length; i++) {
+                if (node.rows[i] != row) continue;
+                if (node.rows.length == 1) return null;
+                Leaf items = new Leaf(node.rows.length - 1);
+                for (int j = 0; j < node.rows.length; j++) {
+                    if (j != i) items.add(node.rows[j], node.xs[j], node.ys[j]);
+                }
+                return items.toNode();
+            }
+            return node;
+        }
+        if (commonDepth(node.x, node.y, x, y) < node.depth) return node;
+        int quadrant = quadrant(x, y, node.depth);
+        Node child = remove(node.children[quadrant], row, x, y);
+        if (child == node.children[quadrant]) return node;
+        Node[] children = node.children.clone();
+        children[quadrant] = child;
+        Node updated = new Node(node.x, node.y, node.depth, children, node.size - 1);
+        if (updated.size <= LEAF_CAPACITY) {
+            Leaf items = new Leaf(updated.size);
+            collect(updated, items);
+            return items.toNode();
+        }
+        Node single = null;
+        for (Node c : children) {
+            if (c == null) continue;
+            if (single != null) return updated;
+            single = c;
+        }
+        return single;
+    }
+
+    /**
+     * Лист, если строк не больше ёмкости листа или все они в одной точке, иначе узел
+     * на глубине первого различающегося бита
+     */
+
+    private Node build(Leaf items) {
+        if (items.size <= LEAF_CAPACITY) return items.toNode();
+        long x = items.xs[0], y = items.ys[0];
+        int depth = 64;
+        for (int i = 0; i < items.size; i++) depth = Math.min(depth, commonDepth(x, y, items.xs[i], items.ys[i]));
+        if (depth == 64) return items.toNode();
+        Leaf[] parts = new Leaf[4];
+        for (int i = 0; i < 4; i++) parts[i] = new Leaf(items.size);
+        for (int i = 0; i < items.size; i++) parts[quadrant(items.xs[i], items.ys[i], depth)].add(items.rows[i], items.xs[i], items.ys[i]);
+        Node[] children = new Node[4];
+        for (int i = 0; i < 4; i++) {
+            if (parts[i].size > 0) children[i] = build(parts[i]);
+        }
+        return new Node(x, y, depth, children, items.size);
+    }
+
+    /**
+     * Ключ, беззнаковый порядок которого совпадает с порядком чисел; -0.0 и 0.0 дают один ключ
+     */
+
+    static long key(double value) {
+        long bits = Double.doubleToLongBits(value + 0.0);
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * Число по ключу; ключи за бесконечностями соответствуют бесконечностям
+     */
+
+    static double value(long key) {
+        double value = Double.longBitsToDouble(key < 0 ? key ^ Long.MIN_VALUE : ~key);
+        if (Double.isNaN(value)) return key < 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+        return value;
+    }
+
+    private static int commonDepth(long x1, long y1, long x2, long y2) {
+        return Math.min(Long.numberOfLeadingZeros(x1 ^ x2), Long.numberOfLeadingZeros(y1 ^ y2));
+    }
+
+    private static int quadrant(long x, long y, int depth) {
+        int bit = 63 - depth;
+        return (int) ((x >>> bit) & 1) << 1 | (int) ((y >>> bit) & 1);
+    }
+
+    /**
+     * Узел: у листа есть только строки с ключами их точек, у внутреннего узла - общие старшие depth бит ключей
+     * (взятые из ключей любой его точки) и четыре квадранта, некоторые из которых пусты.
+     */
+
+    private static final class Node {
+        private final long x;
+        private final long y;
+        private final int depth;
+        private final Node[] children;
+        private final int[] rows;
+        private final long[] xs;
+        private final long[] ys;
+        private final int size;
+
+        Node(int[] rows, long[] xs, long[] ys) {
+            x = 0;
+            y = 0;
+            depth = 0;
+            children = null;
+            this.rows = rows;
+            this.xs = xs;
+            this.ys = ys;
+            size = rows.length;
+        }
+
+        Node(long x, long y, int depth, Node[] children, int size) {
+            this.x = x;
+            this.y = y;
+            this.depth = depth;
+            this.children = children;
+            rows = null;
+            xs = null;
+            ys = null;
+            this.size = size;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        long lowX() {
+            return x & ~rest();
+        }
+
+        long highX() {
+            return x | rest();
+        }
+
+        long lowY() {
+            return y & ~rest();
+        }
+
+        long highY() {
+            return y | rest();
+        }
+
+        /**
+         * @return младшие биты, которые внутри узла могут быть любыми
+         */
+
+        private long rest() {
+            return depth == 0 ? -1L : -1L >>> depth;
+        }
+
+        /**
+         * @return расстояние от точки до области узла
+         */
+
+        double distance(double px, double py) {
+            double dx = Math.max(0, Math.max(value(lowX()) - px, px - value(highX())));
+            double dy = Math.max(0, Math.max(value(lowY()) - py, py - value(highY())));
+            return Math.hypot(dx, dy);
+        }
+    }
+
+    /**
+     * Прямоугольник запроса в ключах
+     */
+
+    private static class Box {
+        private final long lowX;
+        private final long highX;
+        private final long lowY;
+        private final long highY;
+
+        Box(long lowX, long highX, long lowY, long highY) {
+            this.lowX = lowX;
+            this.highX = highX;
+            this.lowY = lowY;
+            this.highY = highY;
+        }
+
+        boolean contains(long x, long y) {
+            return Long.compareUnsigned(x, lowX) >= 0 && Long.compareUnsigned(x, highX) <= 0
+                    && Long.compareUnsigned(y, lowY) >= 0 && Long.compareUnsigned(y, highY) <= 0;
+        }
+
+        boolean intersects(long fromX, long toX, long fromY, long toY) {
+            return Long.compareUnsigned(fromX, highX) <= 0 && Long.compareUnsigned(toX, lowX) >= 0
+                    && Long.compareUnsigned(fromY, highY) <= 0 && Long.compareUnsigned(toY, lowY) >= 0;
+        }
+    }
+
+    /**
+     * Строки с ключами точек, собираемые в лист или делимые по квадрантам
+     */
+
+    private static class Leaf {
+        private int[] rows;
+        private long[] xs;
+        private long[] ys;
+        private int size;
+
+        Leaf(int capacity) {
+            rows = new int[capacity];
+            xs = new long[capacity];
+            ys = new long[capacity];
+        }
+
+        void add(int row, long x, long y) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2 + 1);
+                xs = Arrays.copyOf(xs, size * 2 + 1);
+                ys = Arrays.copyOf(ys, size * 2 + 1);
+            }
+            rows[size] = row;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        Node toNode() {
+            return new Node(Arrays.copyOf(rows, size), Arrays.copyOf(xs, size), Arrays.copyOf(ys, size));
+        }
+    }
+
+    /**
+     * Квадрант или строка в очереди поиска ближайших
+     */
+
+    private static class Candidate {
+        private final Node node;
+        private final int row;
+        private final double distance;
+
+        Candidate(Node node, int row, double distance) {
+            this.node = node;
+            this.row = row;
+            this.distance = distance;
+        }
+    }
+}
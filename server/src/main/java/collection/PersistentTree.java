@@ -0,0 +1,201 @@
+package collection;
+
+import java.util.*;
+
+/**
+ * Неизменяемое сбалансированное (AVL) дерево поиска.
+ * Изменение возвращает новое дерево, копируя только путь от корня до изменённого узла,
+ * остальные узлы общие со старой версией.
+ */
+
+public final class PersistentTree<K, V> implements Iterable<Map.Entry<K, V>> {
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+
+    private PersistentTree(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    public static <K, V> PersistentTree<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentTree<>(comparator, null);
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = comparator.compare(key, node.key);
+            if (cmp == 0) return node.value;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    public PersistentTree<K, V> put(K key, V value) {
+        return new PersistentTree<>(comparator, put(root, key, value));
+    }
+
+    public PersistentTree<K, V> remove(K key) {
+        Node<K, V> updated = remove(root, key);
+        return updated == root ? this : new PersistentTree<>(comparator, updated);
+    }
+
+    public Map.Entry<K, V> first() {
+        Node<K, V> node = root;
+        if (node == null) return null;
+        while (node.left != null) node = node.left;
+        return node;
+    }
+
+    public Map.Entry<K, V> last() {
+        Node<K, V> node = root;
+        if (node == null) return null;
+        while (node.right != null) node = node.right;
+        return node;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return iterator(null, false, false);
+    }
+
+    /**
+     * @param from       ключ, с которого начинается обход, или null для обхода с края
+     * @param inclusive  включать ли сам ключ from
+     * @param descending обход по убыванию
+     */
+
+    public Iterator<Map.Entry<K, V>> iterator(K from, boolean inclusive, boolean descending) {
+        Deque<Node<K, V>> path = new ArrayDeque<>();
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = from == null ? (descending ? -1 : 1) : comparator.compare(node.key, from);
+            boolean fits = descending ? (cmp < 0 || (inclusive && cmp == 0)) : (cmp > 0 || (inclusive && cmp == 0));
+            if (fits) {
+                path.push(node);
+                node = descending ? node.right : node.left;
+            } else {
+                node = descending ? node.left : node.right;
+            }
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (path.isEmpty()) throw new NoSuchElementException();
+                Node<K, V> next = path.pop();
+                Node<K, V> child = descending ? next.left : next.right;
+                while (child != null) {
+                    path.push(child);
+                    child = descending ? child.right : child.left;
+                }
+                return next;
+            }
+        };
+    }
+
+    private Node<K, V> put(Node<K, V> node, K key, V value) {
+        if (node == null) return new Node<>(key, value, null, null);
+        int cmp = comparator.compare(key, node.key);
+        if (cmp == 0) return new Node<>(key, value, node.left, node.right);
+        if (cmp < 0) return balance(node.key, node.value, put(node.left, key, value), node.right);
+        return balance(node.key, node.value, node.left, put(node.right, key, value));
+    }
+
+    private Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) return null;
+        int cmp = comparator.compare(key, node.key);
+        if (cmp < 0) {
+            Node<K, V> left = remove(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (cmp > 0) {
+            Node<K, V> right = remove(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+        Node<K, V> successor = node.right;
+        while (successor.left != null) successor = successor.left;
+        return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+    }
+
+    private Node<K, V> removeFirst(Node<K, V> node) {
+        if (node.left == null) return node.right;
+        return balance(node.key, node.value, removeFirst(node.left), node.right);
+    }
+
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int difference = height(left) - height(right);
+        if (difference > 1) {
+            if (height(left.left) < height(left.right)) left = rotateLeft(left.key, left.value, left.left, left.right);
+            return rotateRight(key, value, left, right);
+        }
+        if (difference < -1) {
+            if (height(right.right) < height(right.left)) right = rotateRight(right.key, right.value, right.left, right.right);
+            return rotateLeft(key, value, left, right);
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static <K, V> Node<K, V> rotateRight(K key, V value, Node<K, V> left, Node<K, V> right) {
+        return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+    }
+
+    private static <K, V> Node<K, V> rotateLeft(K key, V value, Node<K, V> left, Node<K, V> right) {
+        return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+        private final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            height = Math.max(height(left), height(right)) + 1;
+            size = size(left) + size(right) + 1;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
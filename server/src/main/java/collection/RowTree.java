@@ -0,0 +1,336 @@
+package collection;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Неизменяемое B+-дерево номеров строк {@link ColumnStore}.
+ * Порядок задаётся при каждом изменении функцией сравнения двух строк той версии таблицы,
+ * в которой они лежат, поэтому дерево не держит ни элементов, ни ключей: лист - это массив
+ * до 32 номеров строк, внутренний узел - потомки и первая строка каждого из них.
+ * Изменение копирует лист и путь к нему.
+ */
+
+final class RowTree {
+    private static final int CAPACITY = 32;
+    private static final int MIN_FILL = CAPACITY / 4;
+    private static final RowTree EMPTY = new RowTree(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private RowTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    static RowTree empty() {
+        return EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param order сравнение строк таблицы, в которой уже записана row
+     */
+
+    RowTree insert(int row, IntBinaryOperator order) {
+        if (root == null) return new RowTree(new Node(new int[]{row}, null), 1);
+        Node[] split = insert(root, row, order);
+        Node updated = split.length == 1 ? split[0] : new Node(new int[]{split[0].first(), split[1].first()}, split);
+        return new RowTree(updated, size + 1);
+    }
+
+    /**
+     * @param order сравнение строк таблицы, в которой row ещё записана
+     */
+
+    RowTree remove(int row, IntBinaryOperator order) {
+        if (root == null) return this;
+        Node updated = remove(root, row, order);
+        if (updated == root) return this;
+        while (updated != null && !updated.isLeaf() && updated.children.length == 1) updated = updated.children[0];
+        return new RowTree(updated, size - 1);
+    }
+
+    /**
+     * @param target сравнение строки с искомой: отрицательное, если строка раньше
+     * @return строка, для которой target равно нулю, или -1
+     */
+
+    int find(IntUnaryOperator target) {
+        PrimitiveIterator.OfInt iterator = iterator(target, true, false);
+        if (!iterator.hasNext()) return -1;
+        int row = iterator.nextInt();
+        return target.applyAsInt(row) == 0 ? row : -1;
+    }
+
+    PrimitiveIterator.OfInt iterator() {
+        return iterator(null, false, false);
+    }
+
+    /**
+     * @param from       сравнение строки с местом начала обхода, или null для обхода с края
+     * @param inclusive  включать ли строки, равные месту начала
+     * @param descending обход по убыванию
+     */
+
+    PrimitiveIterator.OfInt iterator(IntUnaryOperator from, boolean inclusive, boolean descending) {
+        return new RowIterator(from, inclusive, descending);
+    }
+
+    private static Node[] insert(Node node, int row, IntBinaryOperator order) {
+        if (node.isLeaf()) {
+            int at = position(node.rows, row, order);
+            int[] rows = new int[node.rows.length + 1];
+            System.arraycopy(node.rows, 0, rows, 0, at);
+            rows[at] = row;
+            System.arraycopy(node.rows, at, rows, at + 1, node.rows.length - at);
+            if (rows.length <= CAPACITY) return new Node[]{new Node(rows, null)};
+            int half = rows.length / 2;
+            return new Node[]{new Node(Arrays.copyOf(rows, half), null), new Node(Arrays.copyOfRange(rows, half, rows.length), null)};
+        }
+        int child = child(node.rows, row, order);
+        Node[] split = insert(node.children[child], row, order);
+        Node[] children;
+        int[] firsts;
+        if (split.length == 1) {
+            children = node.children.clone();
+            children[child] = split[0];
+            firsts = node.rows.clone();
+            firsts[child] = split[0].first();
+        } else {
+            children = insert(node.children, child, split[0], split[1]);
+            firsts = new int[node.rows.length + 1];
+            System.arraycopy(node.rows, 0, firsts, 0, child);
+            firsts[child] = split[0].first();
+            firsts[child + 1] = split[1].first();
+            System.arraycopy(node.rows, child + 1, firsts, child + 2, node.rows.length - child - 1);
+        }
+        if (children.length <= CAPACITY) return new Node[]{new Node(firsts, children)};
+        int half = children.length / 2;
+        return new Node[]{new Node(Arrays.copyOf(firsts, half), Arrays.copyOf(children, half)),
+                new Node(Arrays.copyOfRange(firsts, half, firsts.length), Arrays.copyOfRange(children, half, children.length))};
+    }
+
+    private static Node[] insert(Node[] children, int at, Node first, Node second) {
+        Node[] result = new Node[children.length + 1];
+        System.arraycopy(children, 0, result, 0, at);
+        result[at] = first;
+        result[at + 1] = second;
+        System.arraycopy(children, at + 1, result, at + 2, children.length - at - 1);
+        return result;
+    }
+
+    /**
+     * @return узел без row, тот же узел, если row в нём нет, или null, если узел опустел
+     */
+
+    private static Node remove(Node node, int row, IntBinaryOperator order) {
+        if (node.isLeaf()) {
+            int at = position(node.rows, row, order);
+            if (at == node.rows.length || node.rows[at] != row) return node;
+            if (node.rows.length == 1) return null;
+            return new Node(without(node.rows, at), null);
+        }
+        int child = child(node.rows, row, order);
+        Node updated = remove(node.children[child], row, order);
+        if (updated == node.children[child]) return node;
+        if (updated == null) {
+            if (node.children.length == 1) return null;
+            return new Node(without(node.rows, child), without(node.children, child));
+        }
+        Node[] children = node.children.clone();
+        int[] firsts = node.rows.clone();
+        children[child] = updated;
+        firsts[child] = updated.first();
+        if (updated.width() < MIN_FILL && children.length > 1) {
+            int left = child > 0 ? child - 1 : child;
+            Node merged = merge(children[left], children[left + 1]);
+            if (merged != null) {
+                children = without(children, left + 1);
+                children[left] = merged;
+                firsts = without(firsts, left + 1);
+            }
+        }
+        return new Node(firsts, children);
+    }
+
+    private static Node[] without(Node[] nodes, int at) {
+        Node[] result = new Node[nodes.length - 1];
+        System.arraycopy(nodes, 0, result, 0, at);
+        System.arraycopy(nodes, at + 1, result, at, result.length - at);
+        return result;
+    }
+
+    private static int[] without(int[] rows, int at) {
+        int[] result = new int[rows.length - 1];
+        System.arraycopy(rows, 0, result, 0, at);
+        System.arraycopy(rows, at + 1, result, at, result.length - at);
+        return result;
+    }
+
+    /**
+     * @return соседние узлы одним узлом или null, если вместе они не помещаются
+     */
+
+    private static Node merge(Node left, Node right) {
+        if (left.width() + right.width() > CAPACITY) return null;
+        if (left.isLeaf()) {
+            int[] rows = Arrays.copyOf(left.rows, left.rows.length + right.rows.length);
+            System.arraycopy(right.rows, 0, rows, left.rows.length, right.rows.length);
+            return new Node(rows, null);
+        }
+        int[] firsts = Arrays.copyOf(left.rows, left.rows.length + right.rows.length);
+        System.arraycopy(right.rows, 0, firsts, left.rows.length, right.rows.length);
+        Node[] children = Arrays.copyOf(left.children, left.children.length + right.children.length);
+        System.arraycopy(right.children, 0, children, left.children.length, right.children.length);
+        return new Node(firsts, children);
+    }
+
+    /**
+     * @return место row среди упорядоченных rows
+     */
+
+    private static int position(int[] rows, int row, IntBinaryOperator order) {
+        int low = 0, high = rows.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (order.applyAsInt(rows[middle], row) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return последний потомок, первая строка которого не больше row, или первый
+     */
+
+    private static int child(int[] firsts, int row, IntBinaryOperator order) {
+        return Math.max(0, position(firsts, row, (a, b) -> order.applyAsInt(a, b) <= 0 ? -1 : 1) - 1);
+    }
+
+    /**
+     * Лист хранит номера строк, внутренний узел - потомков и их первые строки.
+     */
+
+    private static final class Node {
+        private final int[] rows;
+        private final Node[] children;
+
+        Node(int[] rows, Node[] children) {
+            this.rows = rows;
+            this.children = children;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        int width() {
+            return rows.length;
+        }
+
+        int first() {
+            return rows[0];
+        }
+    }
+
+    /**
+     * Обход по листьям со стеком пути от корня.
+     */
+
+    private final class RowIterator implements PrimitiveIterator.OfInt {
+        private final boolean descending;
+        private final Node[] path;
+        private final int[] index;
+        private int depth;
+
+        RowIterator(IntUnaryOperator from, boolean inclusive, boolean descending) {
+            this.descending = descending;
+            int height = 0;
+            for (Node node = root; node != null; node = node.isLeaf() ? null : node.children[0]) height++;
+            path = new Node[height];
+            index = new int[height];
+            depth = -1;
+            if (root == null) return;
+            Node node = root;
+            while (true) {
+                path[++depth] = node;
+                int at = from == null ? (descending ? node.rows.length : 0) : bound(node.rows, from, inclusive, descending);
+                if (node.isLeaf()) {
+                    index[depth] = descending ? at - 1 : at;
+                    break;
+                }
+                int child = descending ? at - 1 : Math.max(0, at - 1);
+                if (child < 0) {
+                    depth = -1;
+                    return;
+                }
+                index[depth] = child;
+                node = node.children[child];
+            }
+            settle();
+        }
+
+        /**
+         * @return число строк, стоящих до места начала обхода
+         */
+
+        private int bound(int[] rows, IntUnaryOperator from, boolean inclusive, boolean descending) {
+            int low = 0, high = rows.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int cmp = from.applyAsInt(rows[middle]);
+                boolean before = descending ? (cmp < 0 || (inclusive && cmp == 0)) : (cmp < 0 || (!inclusive && cmp == 0));
+                if (before) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        /**
+         * Если лист пройден, поднимается к ближайшему узлу с непройденным потомком и спускается к его краю
+         */
+
+        private void settle() {
+            while (depth >= 0) {
+                Node leaf = path[depth];
+                if (index[depth] >= 0 && index[depth] < leaf.rows.length) return;
+                do {
+                    depth--;
+                    if (depth < 0) return;
+                    index[depth] += descending ? -1 : 1;
+                } while (index[depth] < 0 || index[depth] >= path[depth].children.length);
+                while (!path[depth].isLeaf()) {
+                    Node child = path[depth].children[index[depth]];
+                    path[++depth] = child;
+                    index[depth] = descending ? child.width() - 1 : 0;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth >= 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (depth < 0) throw new NoSuchElementException();
+            int row = path[depth].rows[index[depth]];
+            index[depth] += descending ? -1 : 1;
+            settle();
+            return row;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package collection;
+
+import common.data.HumanBeing;
+
+import java.util.*;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Неизменяемое состояние коллекции на момент одной ревизии.
+ * Читатели получают согласованный срез без блокировок; каждое изменение создаёт новую версию,
+ * разделяющую с предыдущей все нетронутые блоки таблицы и узлы деревьев.
+ * Поля элементов лежат в {@link ColumnStore}, порядки и точки хранят только номера строк,
+ * а {@link HumanBeing} собирается при выдаче из среза.
+ */
+
+public final class Snapshot {
+    private static final Snapshot EMPTY = new Snapshot(0, ColumnStore.empty(), RowTree.empty(), emptyOrders(),
+            PersistentTree.empty(Comparator.naturalOrder()), PersistentQuadTree.empty());
+
+    private final long revision;
+    private final ColumnStore rows;
+    private final RowTree added;
+    private final Map<SortKey, RowTree> orders;
+    private final PersistentTree<Integer, Integer> impactSpeeds;
+    private final PersistentQuadTree points;
+
+    private Snapshot(long revision, ColumnStore rows, RowTree added, Map<SortKey, RowTree> orders,
+                     PersistentTree<Integer, Integer> impactSpeeds, PersistentQuadTree points) {
+        this.revision = revision;
+        this.rows = rows;
+        this.added = added;
+        this.orders = orders;
+        this.impactSpeeds = impactSpeeds;
+        this.points = points;
+    }
+
+    static Snapshot empty() {
+        return EMPTY;
+    }
+
+    private static Map<SortKey, RowTree> emptyOrders() {
+        Map<SortKey, RowTree> orders = new EnumMap<>(SortKey.class);
+        for (SortKey key : SortKey.values()) orders.put(key, RowTree.empty());
+        return orders;
+    }
+
+    /**
+     * @param position позиция элемента в порядке добавления
+     */
+
+    Snapshot with(long position, HumanBeing human) {
+        int row = rows.nextRow();
+        ColumnStore updated = rows.insert(human, position);
+        Map<SortKey, RowTree> sorted = new EnumMap<>(SortKey.class);
+        orders.forEach((key, order) -> sorted.put(key, order.insert(row, key.order(updated))));
+        PersistentTree<Integer, Integer> speeds = impactSpeeds;
+        if (human.getImpactSpeed() != null) {
+            Integer count = speeds.get(human.getImpactSpeed());
+            speeds = speeds.put(human.getImpactSpeed(), count == null ? 1 : count + 1);
+        }
+        return new Snapshot(revision, updated, added.insert(row, byPosition(updated)), sorted, speeds,
+                points.add(row, updated.x(row), updated.y(row)));
+    }
+
+    Snapshot without(int id) {
+        int row = rowOf(id);
+        if (row < 0) return this;
+        Map<SortKey, RowTree> sorted = new EnumMap<>(SortKey.class);
+        orders.forEach((key, order) -> sorted.put(key, order.remove(row, key.order(rows))));
+        PersistentTree<Integer, Integer> speeds = impactSpeeds;
+        if (rows.hasImpactSpeed(row)) {
+            Integer count = speeds.get(rows.impactSpeed(row));
+            if (count != null) speeds = count > 1 ? speeds.put(rows.impactSpeed(row), count - 1) : speeds.remove(rows.impactSpeed(row));
+        }
+        return new Snapshot(revision, rows.delete(row), added.remove(row, byPosition(rows)), sorted, speeds,
+                points.remove(row, rows.x(row), rows.y(row)));
+    }
+
+    Snapshot withRevision(long r) {
+        return new Snapshot(r, rows, added, orders, impactSpeeds, points);
+    }
+
+    private static IntBinaryOperator byPosition(ColumnStore rows) {
+        return (a, b) -> Long.compare(rows.position(a), rows.position(b));
+    }
+
+    /**
+     * @return строка элемента с этим id или -1
+     */
+
+    private int rowOf(int id) {
+        return orders.get(SortKey.ID).find(row -> Integer.compare(rows.id(row), id));
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public boolean isEmpty() {
+        return rows.size() == 0;
+    }
+
+    public boolean contains(int id) {
+        return rowOf(id) >= 0;
+    }
+
+    /**
+     * @return элемент с этим id или null
+     */
+
+    public HumanBeing find(int id) {
+        int row = rowOf(id);
+        return row < 0 ? null : rows.get(row);
+    }
+
+    /**
+     * @return позиция элемента с этим id в порядке добавления или -1
+     */
+
+    long positionOf(int id) {
+        int row = rowOf(id);
+        return row < 0 ? -1 : rows.position(row);
+    }
+
+    /**
+     * @return элементы в порядке добавления; коллекция не меняется
+     */
+
+    public Collection<HumanBeing> getHumans() {
+        return values(added);
+    }
+
+    /**
+     * @return элементы по возрастанию координат; коллекция не меняется
+     */
+
+    public Collection<HumanBeing> getSorted() {
+        return values(orders.get(SortKey.COORDINATES));
+    }
+
+    /**
+     * @return id в порядке возрастания; коллекция не меняется
+     */
+
+    public Collection<Integer> getIds() {
+        RowTree tree = orders.get(SortKey.ID);
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                PrimitiveIterator.OfInt iterator = tree.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Integer next() {
+                        return rows.id(iterator.nextInt());
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Integer && Snapshot.this.contains((Integer) o);
+            }
+
+            @Override
+            public int size() {
+                return tree.size();
+            }
+        };
+    }
+
+    /**
+     * Элементы собираются из строк при обходе.
+     */
+
+    private Collection<HumanBeing> values(RowTree tree) {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<HumanBeing> iterator() {
+                PrimitiveIterator.OfInt iterator = tree.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public HumanBeing next() {
+                        return rows.get(iterator.nextInt());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return tree.size();
+            }
+        };
+    }
+
+    /**
+     * Страница в заданном порядке, начиная после элемента курсора.
+     */
+
+    public Page getPage(SortKey key, boolean descending, int size, Page.Cursor cursor) {
+        PrimitiveIterator.OfInt iterator = orders.get(key).iterator(cursor == null ? null : key.comparedTo(rows, cursor.getLast()), false, descending);
+        List<HumanBeing> page = new ArrayList<>(size);
+        while (iterator.hasNext() && page.size() < size) page.add(rows.get(iterator.nextInt()));
+        Page.Cursor next = iterator.hasNext() ? new Page.Cursor(key, descending, size, page.get(page.size() - 1)) : null;
+        return new Page(page, next, rows.size());
+    }
+
+    /**
+     * @return элементы, имя которых начинается с prefix, по возрастанию имени
+     */
+
+    public List<HumanBeing> filterStartsWithName(String prefix) {
+        List<HumanBeing> result = new ArrayList<>();
+        PrimitiveIterator.OfInt iterator = orders.get(SortKey.NAME).iterator(SortKey.NAME.comparedTo(rows, SortKey.NAME.probe(prefix, Integer.MIN_VALUE)), true, false);
+        while (iterator.hasNext()) {
+            int row = iterator.nextInt();
+            if (!rows.name(row).startsWith(prefix)) break;
+            result.add(rows.get(row));
+        }
+        return result;
+    }
+
+    /**
+     * @return элементы, название саундтрека которых начинается с prefix
+     */
+
+    public List<HumanBeing> filterStartsWithSoundtrack(String prefix) {
+        return rows.filterStartsWithSoundtrack(prefix);
+    }
+
+    /**
+     * @return элементы, попадающие в прямоугольник вместе с границами
+     */
+
+    public List<HumanBeing> filterInBox(double x1, double y1, double x2, double y2) {
+        return materialize(points.inBox(x1, y1, x2, y2));
+    }
+
+    /**
+     * @return до k ближайших к точке элементов по возрастанию расстояния
+     */
+
+    public List<HumanBeing> getNearest(double x, double y, int k) {
+        return materialize(points.nearest(x, y, k));
+    }
+
+    private List<HumanBeing> materialize(int[] found) {
+        List<HumanBeing> result = new ArrayList<>(found.length);
+        for (int row : found) result.add(rows.get(row));
+        return result;
+    }
+
+    /**
+     * @return различные значения скорости удара по возрастанию
+     */
+
+    public List<Integer> getUniqueImpactSpeed() {
+        List<Integer> result = new ArrayList<>(impactSpeeds.size());
+        for (Map.Entry<Integer, Integer> entry : impactSpeeds) result.add(entry.getKey());
+        return result;
+    }
+
+    /**
+     * @return наименьшая скорость удара или null, если скоростей нет
+     */
+
+    public Integer getMinImpactSpeed() {
+        return impactSpeeds.isEmpty() ? null : impactSpeeds.first().getKey();
+    }
+
+    public Integer getMaxImpactSpeed() {
+        return impactSpeeds.isEmpty() ? null : impactSpeeds.last().getKey();
+    }
+}
@@ -0,0 +1,179 @@
+package collection;
+
+import common.data.Coordinates;
+import common.data.HumanBeing;
+import common.data.WeaponType;
+
+import java.util.Date;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Поля, по которым можно упорядочить вывод коллекции.
+ * При равных значениях элементы упорядочиваются по id, поэтому порядок строгий.
+ * Строки сравниваются по столбцам {@link ColumnStore}, без сборки элементов.
+ */
+
+public enum SortKey {
+    COORDINATES("coordinates") {
+        int compare(ColumnStore rows, int a, int b) {
+            int result = Double.compare(rows.x(a), rows.x(b));
+            return result != 0 ? result : Double.compare(rows.y(a), rows.y(b));
+        }
+
+        int compare(ColumnStore rows, int row, HumanBeing human) {
+            int result = Double.compare(rows.x(row), human.getCoordinates().getX());
+            return result != 0 ? result : Double.compare(rows.y(row), human.getCoordinates().getY());
+        }
+
+        String valueOf(HumanBeing human) {
+            return human.getCoordinates().getX() + ";" + human.getCoordinates().getY();
+        }
+
+        HumanBeing probe(String value) {
+            String[] xy = value.split(";", 2);
+            return blank(null, new Coordinates(Double.parseDouble(xy[0]), Double.parseDouble(xy[1])), 0);
+        }
+    },
+    ID("id") {
+        int compare(ColumnStore rows, int a, int b) {
+            return 0;
+        }
+
+        int compare(ColumnStore rows, int row, HumanBeing human) {
+            return 0;
+        }
+
+        String valueOf(HumanBeing human) {
+            return "";
+        }
+
+        HumanBeing probe(String value) {
+            return blank(null, null, 0);
+        }
+    },
+    NAME("name") {
+        int compare(ColumnStore rows, int a, int b) {
+            return rows.name(a).compareTo(rows.name(b));
+        }
+
+        int compare(ColumnStore rows, int row, HumanBeing human) {
+            return rows.name(row).compareTo(human.getName());
+        }
+
+        String valueOf(HumanBeing human) {
+            return human.getName();
+        }
+
+        HumanBeing probe(String value) {
+            return blank(value, null, 0);
+        }
+    },
+    IMPACT_SPEED("speed") {
+        int compare(ColumnStore rows, int a, int b) {
+            if (rows.hasImpactSpeed(a) != rows.hasImpactSpeed(b)) return rows.hasImpactSpeed(a) ? 1 : -1;
+            return Integer.compare(rows.impactSpeed(a), rows.impactSpeed(b));
+        }
+
+        int compare(ColumnStore rows, int row, HumanBeing human) {
+            if (!rows.hasImpactSpeed(row)) return -1;
+            return Integer.compare(rows.impactSpeed(row), human.getImpactSpeed());
+        }
+
+        String valueOf(HumanBeing human) {
+            return human.getImpactSpeed().toString();
+        }
+
+        HumanBeing probe(String value) {
+            return blank(null, null, Integer.parseInt(value));
+        }
+    },
+    CREATION_DATE("date") {
+        int compare(ColumnStore rows, int a, int b) {
+            return Long.compare(rows.creationDate(a), rows.creationDate(b));
+        }
+
+        int compare(ColumnStore rows, int row, HumanBeing human) {
+            return Long.compare(rows.creationDate(row), human.getCreationDate() == null ? Long.MIN_VALUE : human.getCreationDate().getTime());
+        }
+
+        String valueOf(HumanBeing human) {
+            return human.getCreationDate() == null ? "" : Long.toString(human.getCreationDate().getTime());
+        }
+
+        HumanBeing probe(String value) {
+            HumanBeing human = blank(null, null, 0);
+            if (!value.isEmpty()) human.setCreationDate(new Date(Long.parseLong(value)));
+            return human;
+        }
+    };
+
+    private final String name;
+
+    SortKey(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return сравнение двух строк таблицы по полю, затем по id
+     */
+
+    IntBinaryOperator order(ColumnStore rows) {
+        return (a, b) -> {
+            int result = compare(rows, a, b);
+            return result != 0 ? result : Integer.compare(rows.id(a), rows.id(b));
+        };
+    }
+
+    /**
+     * @return сравнение строки таблицы с элементом по полю, затем по id
+     */
+
+    IntUnaryOperator comparedTo(ColumnStore rows, HumanBeing human) {
+        return row -> {
+            int result = compare(rows, row, human);
+            return result != 0 ? result : Integer.compare(rows.id(row), human.getId());
+        };
+    }
+
+    abstract int compare(ColumnStore rows, int a, int b);
+
+    abstract int compare(ColumnStore rows, int row, HumanBeing human);
+
+    /**
+     * @return значение поля в виде строки для курсора
+     */
+
+    abstract String valueOf(HumanBeing human);
+
+    /**
+     * @return элемент с заданным значением поля, пригодный только для поиска в упорядоченном наборе
+     */
+
+    abstract HumanBeing probe(String value);
+
+    HumanBeing probe(String value, int id) {
+        HumanBeing human = probe(value);
+        human.setId(id);
+        return human;
+    }
+
+    private static HumanBeing blank(String name, Coordinates coordinates, int impactSpeed) {
+        return new HumanBeing(name, coordinates, false, false, impactSpeed, null, 0, WeaponType.AXE, null);
+    }
+
+    /**
+     * @return ключ по имени или null, если такого нет
+     */
+
+    public static SortKey parse(String s) {
+        for (SortKey key : values()) {
+            if (key.name.equalsIgnoreCase(s)) return key;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,33 @@
+package commands;
+
+import collection.HumanCollectionManager;
+import common.collection.HumanManager;
+import common.commands.CommandImpl;
+import common.commands.CommandType;
+import common.data.HumanBeing;
+import common.exceptions.InvalidCommandArgumentException;
+import common.exceptions.InvalidDataException;
+import common.exceptions.MissedCommandArgumentException;
+
+import java.util.List;
+
+import static common.utils.Parser.parseDouble;
+
+public class FilterInBoxCommand extends CommandImpl {
+    private final HumanCollectionManager collectionManager;
+
+    public FilterInBoxCommand(HumanManager cm) {
+        super("filter_in_box", CommandType.NORMAL);
+        collectionManager = (HumanCollectionManager) cm;
+    }
+
+    @Override
+    public String execute() throws InvalidDataException {
+        if (!hasStringArg()) throw new MissedCommandArgumentException();
+        String[] args = getStringArg().trim().split("\\s+");
+        if (args.length != 4) throw new InvalidCommandArgumentException("нужны координаты двух углов: x1 y1 x2 y2");
+        List<HumanBeing> list = collectionManager.filterInBox(parseDouble(args[0]), parseDouble(args[1]), parseDouble(args[2]), parseDouble(args[3]));
+        if (list.isEmpty()) return "В заданной области нет элементов";
+        return list.stream().map(HumanBeing::toString).reduce("", (a, b) -> a + b + "\n");
+    }
+}
@@ -18,7 +18,7 @@ public class FilterStartsWithNameCommand extends CommandImpl {
 
     @Override
     public String execute() {
-        if (hasStringArg()) throw new MissedCommandArgumentException();
+        if (!hasStringArg()) throw new MissedCommandArgumentException();
         String start = getStringArg();
         List<HumanBeing> list = collectionManager.filterStartsWithName(getStringArg());
         if (list.isEmpty()) return "Ни один из элементов не имеет имени, начинающегося с " + start;
@@ -0,0 +1,37 @@
+package commands;
+
+import collection.HumanCollectionManager;
+import common.collection.HumanManager;
+import common.commands.CommandImpl;
+import common.commands.CommandType;
+import common.data.HumanBeing;
+import common.exceptions.InvalidCommandArgumentException;
+import common.exceptions.InvalidDataException;
+import common.exceptions.MissedCommandArgumentException;
+
+import java.util.List;
+
+import static common.utils.Parser.parseDouble;
+import static common.utils.Parser.parseId;
+
+public class NearestCommand extends CommandImpl {
+    public static final int MAX_COUNT = 1000;
+
+    private final HumanCollectionManager collectionManager;
+
+    public NearestCommand(HumanManager cm) {
+        super("nearest", CommandType.NORMAL);
+        collectionManager = (HumanCollectionManager) cm;
+    }
+
+    @Override
+    public String execute() throws InvalidDataException {
+        if (!hasStringArg()) throw new MissedCommandArgumentException();
+        String[] args = getStringArg().trim().split("\\s+");
+        if (args.length != 3) throw new InvalidCommandArgumentException("нужны точка и число элементов: x y k");
+        int k = parseId(args[2]);
+        if (k < 1 || k > MAX_COUNT) throw new InvalidCommandArgumentException("число элементов должно быть от 1 до " + MAX_COUNT);
+        List<HumanBeing> list = collectionManager.getNearest(parseDouble(args[0]), parseDouble(args[1]), k);
+        return list.stream().map(HumanBeing::toString).reduce("", (a, b) -> a + b + "\n");
+    }
+}
@@ -3,11 +3,8 @@ package commands;
 import common.collection.HumanManager;
 import common.commands.CommandImpl;
 import common.commands.CommandType;
-import common.data.HumanBeing;
 import common.exceptions.EmptyCollectionException;
 
-import java.util.OptionalDouble;
-
 public class PrintAverageOfMinutesOfWaiting extends CommandImpl {
     private final HumanManager collectionManager;
 
@@ -20,9 +17,6 @@ public class PrintAverageOfMinutesOfWaiting extends CommandImpl {
     @Override
     public String execute() {
         if (collectionManager.getCollection().isEmpty()) throw new EmptyCollectionException();
-        OptionalDouble minutes = collectionManager.getCollection().stream()
-                .mapToDouble(HumanBeing::getMinutesOfWaiting)
-                .average();
-        return "Среднее время ожидания: " + minutes.getAsDouble() + " минут.";
+        return "Среднее время ожидания: " + collectionManager.getStats().getMinutesOfWaiting().getAverage() + " минут.";
     }
 }
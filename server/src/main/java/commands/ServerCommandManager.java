@@ -7,6 +7,7 @@ import common.commands.Command;
 import common.commands.CommandManager;
 import common.commands.CommandType;
 import common.connection.AnswerMsg;
+import common.connection.CollectionOperation;
 import common.connection.Request;
 import common.connection.Response;
 import common.data.HumanBeing;
@@ -38,10 +39,14 @@ public class ServerCommandManager extends CommandManager {
         addCommand(new RemoveFirstCommand(collectionManager));
         addCommand(new ShowCommand(collectionManager));
         addCommand(new FilterStartsWithNameCommand(collectionManager));
+        addCommand(new StatsCommand(collectionManager));
+        addCommand(new FilterInBoxCommand(collectionManager));
+        addCommand(new NearestCommand(collectionManager));
 
         addCommand(new LoginCommand(userManager));
         addCommand(new RegisterCommand(userManager));
         addCommand(new ShowUsersCommand(userManager));
+        addCommand(new ServerLoadCommand(server));
     }
 
     public Server getServer() {
@@ -71,7 +76,11 @@ public class ServerCommandManager extends CommandManager {
             }
 
 
-            res = (AnswerMsg) super.runCommand(msg);
+            if (cmd.getOperation() != CollectionOperation.NONE && !server.getMutations().isWriterThread()) {
+                res = server.getMutations().execute(() -> (AnswerMsg) super.runCommand(msg));
+            } else {
+                res = (AnswerMsg) super.runCommand(msg);
+            }
         } catch (ConnectionException | CommandException e) {
             res.error(e.getMessage());
         }
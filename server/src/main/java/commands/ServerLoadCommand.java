@@ -0,0 +1,19 @@
+package commands;
+
+import common.commands.CommandImpl;
+import common.commands.CommandType;
+import server.Server;
+
+public class ServerLoadCommand extends CommandImpl {
+    private final Server server;
+
+    public ServerLoadCommand(Server server) {
+        super("server_load", CommandType.SERVER_ONLY);
+        this.server = server;
+    }
+
+    @Override
+    public String execute() {
+        return server.getLoadInfo();
+    }
+}
@@ -1,25 +1,66 @@
 package commands;
 
+import collection.HumanCollectionManager;
+import collection.Page;
+import collection.Snapshot;
+import collection.SortKey;
 import common.collection.HumanManager;
 import common.commands.CommandImpl;
 import common.commands.CommandType;
 import common.connection.AnswerMsg;
-import common.connection.CollectionOperation;
 import common.connection.Response;
 import common.exceptions.EmptyCollectionException;
+import common.exceptions.InvalidCommandArgumentException;
+
+/**
+ * Постраничный вывод коллекции: show [размер] [coordinates|id|name|speed|date] [asc|desc] [курсор].
+ * Курсор из ответа продолжает вывод с того же места.
+ */
 
 public class ShowCommand extends CommandImpl {
-    private final HumanManager collectionManager;
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final HumanCollectionManager collectionManager;
 
     public ShowCommand(HumanManager cm) {
-        super("show", CommandType.NORMAL, CollectionOperation.ADD);
-        collectionManager = cm;
+        super("show", CommandType.NORMAL);
+        collectionManager = (HumanCollectionManager) cm;
     }
 
     @Override
     public Response run() {
-        if (collectionManager.getCollection().isEmpty()) throw new EmptyCollectionException();
-        collectionManager.sort();
-        return new AnswerMsg().info(collectionManager.serializeCollection()).setCollection(collectionManager.getCollection()).setStatus(Response.Status.COLLECTION);
+        Snapshot snapshot = collectionManager.getSnapshot();
+        if (snapshot.isEmpty()) throw new EmptyCollectionException();
+        Integer size = null;
+        SortKey key = null;
+        Boolean descending = null;
+        Page.Cursor cursor = null;
+        if (hasStringArg()) {
+            for (String token : getStringArg().trim().split("\\s+")) {
+                if (token.matches("\\d{1,9}")) size = Integer.parseInt(token);
+                else if (token.equalsIgnoreCase("asc") || token.equalsIgnoreCase("desc"))
+                    descending = token.equalsIgnoreCase("desc");
+                else if (SortKey.parse(token) != null) key = SortKey.parse(token);
+                else cursor = Page.Cursor.decode(token);
+            }
+        }
+        if (cursor != null) {
+            if ((key != null && key != cursor.getKey()) || (descending != null && descending != cursor.isDescending()))
+                throw new InvalidCommandArgumentException("курсор получен для другого порядка");
+            key = cursor.getKey();
+            descending = cursor.isDescending();
+            if (size == null) size = cursor.getSize();
+        }
+        if (size == null) size = DEFAULT_PAGE_SIZE;
+        if (size < 1 || size > MAX_PAGE_SIZE)
+            throw new InvalidCommandArgumentException("размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        if (key == null) key = SortKey.COORDINATES;
+        if (descending == null) descending = false;
+
+        Page page = snapshot.getPage(key, descending, size, cursor);
+        String info = "Показано элементов: " + page.getHumans().size() + " из " + page.getTotal();
+        if (page.getNext() != null) info += "\nСледующая страница: show " + page.getNext().encode();
+        return new AnswerMsg().info(info).setCollection(page.getHumans()).setStatus(Response.Status.FINE);
     }
 }
@@ -0,0 +1,25 @@
+package commands;
+
+import common.collection.HumanManager;
+import common.collection.HumanStats;
+import common.commands.CommandImpl;
+import common.commands.CommandType;
+
+public class StatsCommand extends CommandImpl {
+    private final HumanManager collectionManager;
+
+    public StatsCommand(HumanManager cm) {
+        super("stats", CommandType.NORMAL);
+        collectionManager = cm;
+    }
+
+    @Override
+    public String execute() {
+        HumanStats stats = collectionManager.getStats();
+        return "Элементов: " + stats.getCount() +
+                "\nСкорость удара: " + stats.getImpactSpeed() +
+                "\nВремя ожидания: " + stats.getMinutesOfWaiting() +
+                "\nПо типу оружия: " + stats.getWeaponTypes() +
+                "\nПо владельцам: " + stats.getOwners();
+    }
+}
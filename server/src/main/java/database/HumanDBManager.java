@@ -3,9 +3,11 @@ package database;
 import auth.UserManager;
 import collection.HumanCollectionManager;
 import common.auth.User;
+import common.collection.IdAllocator;
 import common.data.Car;
 import common.data.Coordinates;
 import common.data.HumanBeing;
+import common.data.Interner;
 import common.data.WeaponType;
 import common.exceptions.*;
 import common.utils.DateConverter;
@@ -15,25 +17,43 @@ import log.Log;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class HumanDBManager extends HumanCollectionManager {
     //language=SQL
     private final static String INSERT_HUMANS_QUERY = "INSERT INTO HUMANS (name, coordinates_x, coordinates_y, creation_date, real_hero, has_toothpick, impact_speed, soundtrack_name, minutes_of_waiting, weapon_type, car_name, user_login,id)" +
-            "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,DEFAULT) RETURNING id; ";
+            "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?); ";
+    //language=SQL
+    private final static String LOCK_SEQUENCE_QUERY = "SELECT pg_advisory_xact_lock(hashtext('humans_id_seq'))";
+    //language=SQL
+    private final static String RESERVE_IDS_QUERY = "SELECT setval('humans_id_seq', greatest(nextval('humans_id_seq'), ?) + ? - 1)";
     private final DBManager dbManager;
+    private final DBManager sequenceManager;
     private final UserManager userManager;
 
-    public HumanDBManager(DBManager c, UserManager userManager) throws DataBaseException {
+    /**
+     * @param sequences отдельное соединение для резервирования id, чтобы фоновое резервирование
+     *                  не попадало в транзакции записи на основном соединении
+     */
+
+    public HumanDBManager(DBManager c, DBManager sequences, UserManager userManager) throws DataBaseException {
         super();
         dbManager = c;
+        sequenceManager = sequences;
         this.userManager = userManager;
         create();
+        ExecutorService refill = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Резервирование идентификаторов");
+            thread.setDaemon(true);
+            return thread;
+        });
+        setIdAllocator(new IdAllocator(IdAllocator.DEFAULT_BLOCK_SIZE, this::reserveIds, refill));
     }
 
     private void create() throws DataBaseException {
@@ -62,14 +82,33 @@ public class HumanDBManager extends HumanCollectionManager {
         }
     }
 
-    @Override
-    public int generateNextId() {
-        try (PreparedStatement statement = dbManager.getPreparedStatement("SELECT nextval('id')")) {
-            ResultSet r = statement.executeQuery();
-            r.next();
-            return r.getInt(1);
-        } catch (SQLException e) {
-            return 1;
+    /**
+     * Резервирует size id подряд, начиная не ниже floor: берёт следующее значение последовательности
+     * и переставляет её на конец блока. Определение последовательности не меняется, а advisory-блокировка
+     * не даёт другому серверу получить значение между nextval и setval.
+     *
+     * @return первый id блока
+     */
+
+    private int reserveIds(int size, int floor) {
+        synchronized (sequenceManager) {
+            sequenceManager.setCommitMode();
+            try (PreparedStatement lock = sequenceManager.getPreparedStatement(LOCK_SEQUENCE_QUERY);
+                 PreparedStatement statement = sequenceManager.getPreparedStatement(RESERVE_IDS_QUERY)) {
+                lock.execute();
+                statement.setInt(1, floor);
+                statement.setInt(2, size);
+                ResultSet r = statement.executeQuery();
+                if (!r.next()) throw new DatabaseException("cannot reserve ids");
+                int end = r.getInt(1);
+                sequenceManager.commit();
+                return end - size + 1;
+            } catch (SQLException | DatabaseException e) {
+                sequenceManager.rollback();
+                throw new DatabaseException("cannot reserve ids");
+            } finally {
+                sequenceManager.setNormalMode();
+            }
         }
     }
 
@@ -100,7 +139,7 @@ public class HumanDBManager extends HumanCollectionManager {
         boolean hasToothpick = resultSet.getBoolean("has_toothpick");
 
         Integer impactSpeed = resultSet.getInt("impact_speed");
-        String soundtrackName = resultSet.getString("soundtrack_name");
+        String soundtrackName = Interner.STRINGS.intern(resultSet.getString("soundtrack_name"));
         float minutesOfWaiting = resultSet.getFloat("minutes_of_waiting");
         WeaponType weaponType;
         try {
@@ -109,11 +148,11 @@ public class HumanDBManager extends HumanCollectionManager {
             throw new InvalidEnumException();
         }
         String carName = resultSet.getString("car_name");
-        Car car = new Car(carName);
+        Car car = Car.of(carName);
         HumanBeing human = new HumanBeing(name, coordinates, realHero, hasToothpick, impactSpeed, soundtrackName, minutesOfWaiting, weaponType, car);
         human.setCreationDate(creationDate);
         human.setId(id);
-        human.setUserLogin(resultSet.getString("user_login"));
+        human.setUserLogin(Interner.STRINGS.intern(resultSet.getString("user_login")));
         if (!userManager.isPresent(human.getUserLogin())) throw new DataBaseException("no user found");
         return human;
     }
@@ -122,13 +161,11 @@ public class HumanDBManager extends HumanCollectionManager {
     public void add(HumanBeing human) {
         dbManager.setCommitMode();
         dbManager.setSavepoint();
-        try (PreparedStatement statement = dbManager.getPreparedStatement(INSERT_HUMANS_QUERY, true)) {
+        try (PreparedStatement statement = dbManager.getPreparedStatement(INSERT_HUMANS_QUERY)) {
+            human.setId(generateNextId());
             setHuman(statement, human);
+            statement.setInt(13, human.getId());
             if (statement.executeUpdate() == 0) throw new DatabaseException();
-            ResultSet resultSet = statement.getGeneratedKeys();
-
-            if (!resultSet.next()) throw new DatabaseException();
-            human.setId(resultSet.getInt(resultSet.findColumn("id")));
 
             dbManager.commit();
         } catch (SQLException | DatabaseException e) {
@@ -157,7 +194,7 @@ public class HumanDBManager extends HumanCollectionManager {
 
     @Override
     public void removeFirst() {
-        removeByID(getCollection().getFirst().getId());
+        removeByID(getCollection().iterator().next().getId());
     }
 
     @Override
@@ -194,79 +231,19 @@ public class HumanDBManager extends HumanCollectionManager {
         super.updateByID(id, human);
     }
 
-    @Override
-    public void addIfMax(HumanBeing human) {
-        //language=SQL
-        String getMaxQuery = "SELECT MAX(impact_speed) FROM HUMANS";
-
-        if (getCollection().isEmpty()) {
-            add(human);
-            return;
-        }
-        dbManager.setCommitMode();
-        dbManager.setSavepoint();
-        try (Statement getStatement = dbManager.getStatement();
-             PreparedStatement insertStatement = dbManager.getPreparedStatement(INSERT_HUMANS_QUERY)) {
-
-            ResultSet resultSet = getStatement.executeQuery(getMaxQuery);
-            if (!resultSet.next()) throw new CannotAddException();
-
-            long impactspeed = resultSet.getLong(1);
-            if (human.getImpactSpeed() < impactspeed)
-                throw new DataBaseException("[AddIfMaxException] unable to add, max impact speed is " + impactspeed + " current impact speed is " + human.getImpactSpeed());
-
-            setHuman(insertStatement, human);
-
-            human.setId(resultSet.getInt("id"));
-            dbManager.commit();
-        } catch (SQLException e) {
-            dbManager.rollback();
-            throw new CannotAddException();
-        } finally {
-            dbManager.setNormalMode();
-        }
-        super.addWithoutIdGeneration(human);
-    }
-
-    @Override
-    public void addIfMin(HumanBeing human) {
-        //language=SQL
-        String getMinQuery = "SELECT MIN(impact_speed) FROM HUMANS";
+    /**
+     * Удаляет элементы пользователя одним изменением коллекции
+     */
 
-        if (getCollection().isEmpty()) {
-            add(human);
-            return;
-        }
-        dbManager.setCommitMode();
-        dbManager.setSavepoint();
-        try (Statement getStatement = dbManager.getStatement();
-             PreparedStatement insertStatement = dbManager.getPreparedStatement(INSERT_HUMANS_QUERY)) {
-
-            ResultSet resultSet = getStatement.executeQuery(getMinQuery);
-            if (!resultSet.next()) throw new CannotAddException();
-
-            long impactSpeed = resultSet.getLong(1);
-            if (human.getImpactSpeed() > impactSpeed)
-                throw new DataBaseException("[AddIfMinException] unable to add, min impact speed is " + impactSpeed + " current impact speed is " + human.getImpactSpeed());
-
-            setHuman(insertStatement, human);
-
-            human.setId(resultSet.getInt("id"));
-            dbManager.commit();
-        } catch (SQLException e) {
-            dbManager.rollback();
-            throw new DataBaseException("cannot add due to internal error");
-        } finally {
-            dbManager.setNormalMode();
-        }
-        super.addWithoutIdGeneration(human);
+    public Collection<HumanBeing> clear(User user) {
+        Set<HumanBeing> removed = new HashSet<>();
+        atomically(() -> clear(user, removed));
+        return removed;
     }
 
-    public Collection<HumanBeing> clear(User user) {
+    private void clear(User user, Set<HumanBeing> removed) {
         dbManager.setCommitMode();
         dbManager.setSavepoint();
-        Set<HumanBeing> removed = new HashSet<>();
-
         try (PreparedStatement statement = dbManager.getPreparedStatement("DELETE FROM HUMANS WHERE user_login=? RETURNING id")) {
             statement.setString(1, user.getLogin());
             ResultSet resultSet = statement.executeQuery();
@@ -282,11 +259,14 @@ public class HumanDBManager extends HumanCollectionManager {
         } finally {
             dbManager.setNormalMode();
         }
-        return  removed;
     }
 
     @Override
     public void deserializeCollection(String ignored) {
+        atomically(this::load);
+    }
+
+    private void load() {
         if (!getCollection().isEmpty()) super.clear();
         //language=SQL
         String query = "SELECT * FROM HUMANS";
@@ -40,6 +40,13 @@ public class Main {
             settings.setProperty("url", url);
             settings.setProperty("user", user);
             settings.setProperty("password", password);
+            settings.setProperty("shards", System.getProperty("shards", "1"));
+            for (String key : new String[]{"request_queue_capacity", "response_queue_capacity", "rate_limit", "rate_burst",
+                    "broadcast_window", "broadcast_batch", "session_timeout", "transport",
+                    "compression_threshold", "changelog_capacity",
+                    "mutation_queue_capacity", "mutation_batch", "strand_capacity", "shard_connections"}) {
+                if (System.getProperty(key) != null) settings.setProperty(key, System.getProperty(key));
+            }
             Server server = new Server(port, settings);
 
             server.start();
@@ -0,0 +1,120 @@
+package server;
+
+import common.connection.CollectionOperation;
+import common.data.HumanBeing;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+/**
+ * Накопитель изменений коллекции за окно рассылки.
+ * Изменения одного элемента схлопываются: добавление и последующее удаление взаимно уничтожаются,
+ * несколько обновлений заменяются последним.
+ */
+
+public class BroadcastCoalescer {
+    private final int maxChanges;
+    private List<Change> changes;
+
+    /**
+     * @param maxChanges после скольких изменений окно закрывается досрочно
+     */
+
+    public BroadcastCoalescer(int maxChanges) {
+        this.maxChanges = maxChanges;
+        changes = new ArrayList<>();
+    }
+
+    /**
+     * Запоминает изменения, уже получившие ревизии в журнале.
+     *
+     * @return число изменений в окне после добавления
+     */
+
+    public synchronized int add(List<Change> recorded) {
+        changes.addAll(recorded);
+        return changes.size();
+    }
+
+    public boolean isFull(int size) {
+        return size >= maxChanges;
+    }
+
+    /**
+     * @return изменения окна в порядке выполнения; окно очищается
+     */
+
+    public synchronized List<Change> drain() {
+        List<Change> result = changes;
+        changes = new ArrayList<>();
+        return result;
+    }
+
+    /**
+     * Схлопывает изменения по id в разницу между тем, что есть у получателя, и итоговым состоянием.
+     * Свои изменения получатель уже применил по ответу на запрос, поэтому для элементов,
+     * которые он менял, учитывается состояние после его последнего изменения.
+     *
+     * @param recipient получатель или null для клиентов, не менявших коллекцию в этом окне
+     * @return элементы по операциям: сначала удаления, затем обновления и добавления
+     */
+
+    public static Map<CollectionOperation, List<HumanBeing>> compact(List<Change> changes, InetSocketAddress recipient) {
+        Map<Integer, Element> elements = new LinkedHashMap<>();
+        for (Change change : changes) {
+            Element element = elements.computeIfAbsent(change.human.getId(), id -> new Element(change.operation != CollectionOperation.ADD));
+            element.human = change.human;
+            element.present = change.operation != CollectionOperation.REMOVE;
+            element.changedByRecipient = change.origin != null && change.origin.equals(recipient);
+            if (element.changedByRecipient) element.knownPresent = element.present;
+        }
+        Map<CollectionOperation, List<HumanBeing>> result = new LinkedHashMap<>();
+        for (CollectionOperation operation : new CollectionOperation[]{CollectionOperation.REMOVE, CollectionOperation.UPDATE, CollectionOperation.ADD}) {
+            List<HumanBeing> humans = new ArrayList<>();
+            for (Element element : elements.values()) {
+                if (element.delta() == operation) humans.add(element.human);
+            }
+            if (!humans.isEmpty()) result.put(operation, humans);
+        }
+        return result;
+    }
+
+    private static class Element {
+        private HumanBeing human;
+        private boolean present;
+        private boolean knownPresent;
+        private boolean changedByRecipient;
+
+        Element(boolean presentBefore) {
+            knownPresent = presentBefore;
+        }
+
+        CollectionOperation delta() {
+            if (!knownPresent) return present ? CollectionOperation.ADD : CollectionOperation.NONE;
+            if (!present) return CollectionOperation.REMOVE;
+            return changedByRecipient ? CollectionOperation.NONE : CollectionOperation.UPDATE;
+        }
+    }
+
+    public static class Change {
+        private final long revision;
+        private final InetSocketAddress origin;
+        private final CollectionOperation operation;
+        private final HumanBeing human;
+
+        Change(long revision, InetSocketAddress origin, CollectionOperation operation, HumanBeing human) {
+            this.revision = revision;
+            this.origin = origin;
+            this.operation = operation;
+            this.human = human;
+        }
+
+        public long getRevision() {
+            return revision;
+        }
+
+        public InetSocketAddress getOrigin() {
+            return origin;
+        }
+    }
+}
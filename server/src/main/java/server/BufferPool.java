@@ -0,0 +1,43 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Пул переиспользуемых direct-буферов для приёма датаграмм.
+ */
+
+public class BufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * @param bufferSize размер одного буфера
+     * @param capacity   сколько свободных буферов хранить
+     */
+
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        buffers = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @return очищенный буфер из пула или новый, если пул пуст
+     */
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(bufferSize);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Возвращает буфер в пул; лишние буферы отдаются сборщику мусора.
+     */
+
+    public void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import common.connection.CollectionOperation;
+import common.data.HumanBeing;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+/**
+ * Журнал последних изменений коллекции. Изменения записываются под ревизией среза коллекции,
+ * в котором они появились, поэтому изменения одной составной операции делят ревизию.
+ * Журнал хранит ограниченное число последних изменений и вытесняет ревизии целиком.
+ * <p>
+ * Ревизии срезов начинаются от времени запуска сервера, поэтому ревизия, полученная клиентом
+ * от предыдущего запуска, не совпадёт с текущими.
+ */
+
+public class Changelog {
+    private final int capacity;
+    private final ArrayDeque<BroadcastCoalescer.Change> entries;
+
+    /**
+     * @param capacity сколько последних изменений хранить
+     */
+
+    public Changelog(int capacity) {
+        this.capacity = capacity;
+        entries = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Запоминает изменения одной операции.
+     *
+     * @param revision ревизия среза коллекции после операции
+     * @param origin   широковещательный адрес клиента, выполнившего изменение
+     * @return записанные изменения
+     */
+
+    public synchronized List<BroadcastCoalescer.Change> record(long revision, InetSocketAddress origin, CollectionOperation operation, Collection<HumanBeing> humans) {
+        List<BroadcastCoalescer.Change> recorded = new ArrayList<>(humans.size());
+        for (HumanBeing human : humans) {
+            BroadcastCoalescer.Change change = new BroadcastCoalescer.Change(revision, origin, operation, human);
+            entries.addLast(change);
+            recorded.add(change);
+        }
+        while (entries.size() > capacity) {
+            long oldest = entries.peekFirst().getRevision();
+            while (!entries.isEmpty() && entries.peekFirst().getRevision() == oldest) entries.removeFirst();
+        }
+        return recorded;
+    }
+
+    /**
+     * @param current ревизия среза, до которой нужна разница
+     * @return изменения после ревизии known до ревизии current или null, если журнал
+     * не содержит какую-то ревизию между ними (вытеснена или изменение не было записано)
+     */
+
+    public synchronized List<BroadcastCoalescer.Change> since(long known, long current) {
+        if (known > current) return null;
+        List<BroadcastCoalescer.Change> changes = new ArrayList<>();
+        long next = known + 1;
+        for (BroadcastCoalescer.Change change : entries) {
+            long revision = change.getRevision();
+            if (revision <= known || revision > current) continue;
+            if (revision == next) next++;
+            else if (revision != next - 1) return null;
+            changes.add(change);
+        }
+        return next == current + 1 ? changes : null;
+    }
+}
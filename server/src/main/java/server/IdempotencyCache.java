@@ -0,0 +1,81 @@
+package server;
+
+import common.connection.Response;
+
+import java.net.InetSocketAddress;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш ответов по паре (адрес клиента, номер запроса).
+ * Повторно полученный запрос не выполняется заново, а получает сохранённый ответ.
+ */
+
+public class IdempotencyCache {
+    private final int capacity;
+    private final long timeToLive;
+    private final LinkedHashMap<Map.Entry<InetSocketAddress, Long>, Entry> entries;
+
+    /**
+     * @param capacity   максимальное число запомненных запросов
+     * @param timeToLive время хранения ответа в миллисекундах
+     */
+
+    public IdempotencyCache(int capacity, long timeToLive) {
+        this.capacity = capacity;
+        this.timeToLive = timeToLive;
+        entries = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map.Entry<InetSocketAddress, Long>, Entry> eldest) {
+                return size() > IdempotencyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Регистрирует запрос перед выполнением.
+     *
+     * @return false, если запрос уже выполняется или выполнен
+     */
+
+    public synchronized boolean register(InetSocketAddress client, long requestId) {
+        evictExpired();
+        Map.Entry<InetSocketAddress, Long> key = new AbstractMap.SimpleEntry<>(client, requestId);
+        if (entries.containsKey(key)) return false;
+        entries.put(key, new Entry());
+        return true;
+    }
+
+    /**
+     * @return сохранённый ответ или null, если запрос ещё выполняется
+     */
+
+    public synchronized Response get(InetSocketAddress client, long requestId) {
+        Entry entry = entries.get(new AbstractMap.SimpleEntry<>(client, requestId));
+        return entry == null ? null : entry.response;
+    }
+
+    public synchronized void complete(InetSocketAddress client, long requestId, Response response) {
+        Entry entry = entries.get(new AbstractMap.SimpleEntry<>(client, requestId));
+        if (entry != null) entry.response = response;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evictExpired() {
+        long deadline = System.currentTimeMillis() - timeToLive;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().created < deadline) {
+            iterator.remove();
+        }
+    }
+
+    private static class Entry {
+        private final long created = System.currentTimeMillis();
+        private Response response;
+    }
+}
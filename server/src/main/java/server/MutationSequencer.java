@@ -0,0 +1,141 @@
+package server;
+
+import common.exceptions.CommandException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Единственный поток, применяющий изменения коллекции строго по очереди.
+ * Изменения поступают в кольцевой буфер ограниченного размера и забираются пачками,
+ * поэтому составные команды (проверка и добавление, удаление и добавление) не пересекаются,
+ * а чтения по-прежнему выполняются параллельно в потоках обработчиков.
+ */
+
+public class MutationSequencer {
+    private final BlockingQueue<Mutation<?>> ring;
+    private final int batchSize;
+    private final Thread writer;
+    private final AtomicLong applied;
+    private final AtomicLong batches;
+    private volatile boolean running;
+
+    /**
+     * @param capacity  сколько изменений может ждать в буфере; при заполнении отправители ждут
+     * @param batchSize сколько изменений забирается за один раз
+     */
+
+    public MutationSequencer(int capacity, int batchSize) {
+        ring = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        applied = new AtomicLong();
+        batches = new AtomicLong();
+        running = true;
+        writer = new Thread(new Writer(), "Применение изменений коллекции");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Выполняет изменение в потоке очереди и ждёт результата.
+     * Из самого потока очереди (например, команды скрипта) изменение выполняется сразу.
+     */
+
+    public <T> T execute(Supplier<T> mutation) {
+        if (Thread.currentThread() == writer) return mutation.get();
+        if (!running) throw new CommandException("сервер останавливается");
+        Mutation<T> task = new Mutation<>(mutation);
+        try {
+            ring.put(task);
+            if (!running) failQueued();
+            return task.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandException("изменение прервано");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writer;
+    }
+
+    public int getQueued() {
+        return ring.size();
+    }
+
+    public long getApplied() {
+        return applied.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Останавливает очередь. Изменение, поставленное после последнего забора, завершает с ошибкой
+     * либо close, либо сам отправитель: он перепроверяет флаг после постановки в очередь.
+     */
+
+    public void close() {
+        running = false;
+        writer.interrupt();
+        failQueued();
+    }
+
+    private void failQueued() {
+        List<Mutation<?>> rest = new ArrayList<>();
+        ring.drainTo(rest);
+        for (Mutation<?> mutation : rest) {
+            mutation.result.completeExceptionally(new CommandException("сервер останавливается"));
+        }
+    }
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            List<Mutation<?>> batch = new ArrayList<>(batchSize);
+            while (running) {
+                try {
+                    batch.add(ring.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                ring.drainTo(batch, batchSize - 1);
+                for (Mutation<?> mutation : batch) {
+                    mutation.run();
+                }
+                applied.addAndGet(batch.size());
+                batches.incrementAndGet();
+                batch.clear();
+            }
+        }
+    }
+
+    private static class Mutation<T> {
+        private final Supplier<T> action;
+        private final CompletableFuture<T> result;
+
+        Mutation(Supplier<T> action) {
+            this.action = action;
+            result = new CompletableFuture<>();
+        }
+
+        void run() {
+            try {
+                result.complete(action.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ограничение частоты запросов: отдельное "ведро токенов" на каждый ключ
+ * (логин пользователя или адрес клиента).
+ */
+
+public class RateLimiter {
+    public static final int MAX_BUCKETS = 4096;
+
+    private final double rate;
+    private final double burst;
+    private final Map<String, Bucket> buckets;
+
+    /**
+     * @param rate  сколько запросов в секунду разрешено в среднем
+     * @param burst сколько запросов можно выполнить подряд
+     */
+
+    public RateLimiter(double rate, double burst) {
+        this.rate = rate;
+        this.burst = burst;
+        buckets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return false, если ключ исчерпал свой лимит
+     */
+
+    public boolean tryAcquire(String key) {
+        long now = System.nanoTime();
+        if (buckets.size() > MAX_BUCKETS) evictIdle(now);
+        Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(burst, now));
+        synchronized (bucket) {
+            bucket.refill(now);
+            if (bucket.tokens < 1) return false;
+            bucket.tokens--;
+            return true;
+        }
+    }
+
+    /**
+     * Удаляет вёдра, которые успели наполниться: для них новое ведро ничем не отличается.
+     */
+
+    private void evictIdle(long now) {
+        buckets.values().removeIf(bucket -> {
+            synchronized (bucket) {
+                bucket.refill(now);
+                return bucket.tokens >= burst;
+            }
+        });
+    }
+
+    private class Bucket {
+        private double tokens;
+        private long updated;
+
+        Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - updated) * rate / 1e9);
+            updated = now;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+
+/**
+ * Фрагменты недавно отправленных ответов для повторной отправки по NACK.
+ * Ответ запоминается вместе с получателями и выдаётся только им;
+ * размер кэша ограничен суммарным объёмом фрагментов, старые ответы вытесняются первыми.
+ */
+
+public class SentFragmentCache {
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Entry> messages;
+    private long bytes;
+
+    /**
+     * @param maxBytes сколько байт фрагментов можно держать одновременно
+     */
+
+    public SentFragmentCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        messages = new LinkedHashMap<>();
+    }
+
+    /**
+     * Запоминает фрагменты ответа; ответ больше всего кэша не запоминается
+     */
+
+    public synchronized void put(int messageId, List<byte[]> fragments, Collection<InetSocketAddress> recipients) {
+        long size = 0;
+        for (byte[] fragment : fragments) size += fragment.length;
+        if (size > maxBytes) return;
+        Entry previous = messages.remove(messageId);
+        if (previous != null) bytes -= previous.bytes;
+        messages.put(messageId, new Entry(fragments, new HashSet<>(recipients), size));
+        bytes += size;
+        Iterator<Entry> eldest = messages.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return фрагменты ответа или null, если ответ вытеснен или адрес не был его получателем
+     */
+
+    public synchronized List<byte[]> get(int messageId, InetSocketAddress recipient) {
+        Entry entry = messages.get(messageId);
+        if (entry == null || !entry.recipients.contains(recipient)) return null;
+        return entry.fragments;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static class Entry {
+        private final List<byte[]> fragments;
+        private final Set<InetSocketAddress> recipients;
+        private final long bytes;
+
+        Entry(List<byte[]> fragments, Set<InetSocketAddress> recipients, long bytes) {
+            this.fragments = fragments;
+            this.recipients = recipients;
+            this.bytes = bytes;
+        }
+    }
+}
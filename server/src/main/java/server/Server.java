@@ -1,12 +1,17 @@
 package server;
 
 import auth.UserManager;
+import collection.HumanCollectionManager;
+import collection.Snapshot;
 import common.collection.HumanManager;
 import commands.ServerCommandManager;
 import common.auth.User;
+import common.commands.Command;
 import common.commands.CommandType;
 import common.connection.*;
+import common.data.Car;
 import common.data.HumanBeing;
+import common.data.Interner;
 import common.exceptions.*;
 import database.DBManager;
 import database.HumanDBManager;
@@ -14,12 +19,16 @@ import database.UserDBManager;
 import exceptions.ServerOnlyCommandException;
 import log.Log;
 
-import java.io.*;
+import java.io.IOException;
+import java.net.BindException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Класс сервера.
@@ -27,25 +36,66 @@ import java.util.concurrent.*;
 
 public class Server extends Thread implements SenderReceiver {
     public final int MAX_CLIENTS = 10;
+    public final long SENT_MESSAGES_CACHE_BYTES = 4L * 1024 * 1024;
+    public final int MAX_RESENT_FRAGMENTS = 16;
+    public final long SEND_BACKLOG_BYTES = 4L * 1024 * 1024;
+    public final int IDEMPOTENCY_CACHE_SIZE = 4096;
+    public final long IDEMPOTENCY_CACHE_TTL = 60_000;
+    public final int BUFFER_POOL_SIZE = 64;
+    public final int DEFAULT_SHARDS = 1;
+    public final int DEFAULT_REQUEST_QUEUE_CAPACITY = 1024;
+    public final int DEFAULT_RESPONSE_QUEUE_CAPACITY = 4096;
+    public final int DEFAULT_RATE_LIMIT = 50;
+    public final int DEFAULT_RATE_BURST = 100;
+    public final int DEFAULT_BROADCAST_WINDOW = 20;
+    public final int DEFAULT_BROADCAST_BATCH = 256;
+    public final int DEFAULT_SESSION_TIMEOUT = 30_000;
+    public final int DEFAULT_CHANGELOG_CAPACITY = 4096;
+    public final int DEFAULT_MUTATION_QUEUE_CAPACITY = 1024;
+    public final int DEFAULT_MUTATION_BATCH = 64;
+    public final int DEFAULT_STRAND_CAPACITY = 64;
+    public final int DEFAULT_SHARD_CONNECTIONS = 256;
 
-    private HumanManager collectionManager;
+    private HumanCollectionManager collectionManager;
     private ServerCommandManager commandManager;
     private DBManager databaseHandler;
+    private DBManager sequenceHandler;
     private UserManager userManager;
 
     private int port;
-    private DatagramChannel channel;
+    private TransportType transportType;
+    private List<Shard> shards;
+    private Map<InetSocketAddress, Connection> connections;
 
-    private ExecutorService receiverThreadPool;
     private ExecutorService senderThreadPool;
     private ExecutorService requestHandlerThreadPool;
+    private StrandExecutor strands;
+    private Map<InetSocketAddress, String> authenticated;
+    private SessionTable sources; // адреса, с которых приходят команды: по ним истекает привязка логина
 
-    private Queue<Map.Entry<InetSocketAddress, Request>> requestQueue;
-    private Queue<Map.Entry<InetSocketAddress, Response>> responseQueue;
-    private Set<InetSocketAddress> activeClients;
+    private BufferPool bufferPool;
+    private SessionTable sessions;
+    private FragmentAssembler assembler;
+    private AtomicInteger nextMessageId;
+    private SentFragmentCache sentMessages;
+    private IdempotencyCache idempotencyCache;
     private volatile boolean running;
 
-    private Selector selector;
+    private int requestQueueCapacity;
+    private int shardConnections;
+    private int responseQueueCapacity;
+    private RateLimiter rateLimiter;
+    private AtomicInteger pendingRequests;
+    private AtomicLong rejectedRequests;
+    private AtomicLong shedRequests;
+    private AtomicLong shedResponses;
+    private AtomicLong droppedDatagrams;
+
+    private int broadcastWindow;
+    private BroadcastCoalescer coalescer;
+    private Changelog changelog;
+    private MutationSequencer mutations;
+    private ScheduledExecutorService scheduler;
 
     private User hostUser;
 
@@ -62,17 +112,47 @@ public class Server extends Thread implements SenderReceiver {
         port = p;
         setDaemon(true);
         hostUser = null;
-        receiverThreadPool = Executors.newFixedThreadPool(MAX_CLIENTS);
-        senderThreadPool = Executors.newFixedThreadPool(MAX_CLIENTS);
-        requestHandlerThreadPool = Executors.newCachedThreadPool();
+        requestQueueCapacity = parseNumber(properties, "request_queue_capacity", DEFAULT_REQUEST_QUEUE_CAPACITY, 1);
+        shardConnections = parseNumber(properties, "shard_connections", DEFAULT_SHARD_CONNECTIONS, 1);
+        responseQueueCapacity = parseNumber(properties, "response_queue_capacity", DEFAULT_RESPONSE_QUEUE_CAPACITY, 1);
+        rateLimiter = new RateLimiter(parseNumber(properties, "rate_limit", DEFAULT_RATE_LIMIT, 1),
+                parseNumber(properties, "rate_burst", DEFAULT_RATE_BURST, 1));
+        pendingRequests = new AtomicInteger();
+        rejectedRequests = new AtomicLong();
+        shedRequests = new AtomicLong();
+        shedResponses = new AtomicLong();
+        droppedDatagrams = new AtomicLong();
+        broadcastWindow = parseNumber(properties, "broadcast_window", DEFAULT_BROADCAST_WINDOW, 1);
+        coalescer = new BroadcastCoalescer(parseNumber(properties, "broadcast_batch", DEFAULT_BROADCAST_BATCH, 1));
+        changelog = new Changelog(parseNumber(properties, "changelog_capacity", DEFAULT_CHANGELOG_CAPACITY, 1));
+        mutations = new MutationSequencer(parseNumber(properties, "mutation_queue_capacity", DEFAULT_MUTATION_QUEUE_CAPACITY, 1),
+                parseNumber(properties, "mutation_batch", DEFAULT_MUTATION_BATCH, 1));
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Фоновые задачи сервера");
+            thread.setDaemon(true);
+            return thread;
+        });
+        senderThreadPool = new ThreadPoolExecutor(MAX_CLIENTS, MAX_CLIENTS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(responseQueueCapacity), new ThreadPoolExecutor.AbortPolicy());
+        requestHandlerThreadPool = newRequestHandlerThreadPool();
+        strands = new StrandExecutor(requestHandlerThreadPool, parseNumber(properties, "strand_capacity", DEFAULT_STRAND_CAPACITY, 1));
+        authenticated = new ConcurrentHashMap<>();
+
+        bufferPool = new BufferPool(BUFFER_SIZE, BUFFER_POOL_SIZE);
+        int sessionTimeout = parseNumber(properties, "session_timeout", DEFAULT_SESSION_TIMEOUT, 1);
+        sessions = new SessionTable(sessionTimeout);
+        sources = new SessionTable(sessionTimeout);
+        scheduler.scheduleAtFixedRate(this::expireSessions, sessionTimeout / 3 + 1, sessionTimeout / 3 + 1, TimeUnit.MILLISECONDS);
+        assembler = new FragmentAssembler();
+        nextMessageId = new AtomicInteger();
+        sentMessages = new SentFragmentCache(SENT_MESSAGES_CACHE_BYTES);
 
-        requestQueue = new ConcurrentLinkedQueue<>();
-        responseQueue = new ConcurrentLinkedQueue<>();
-        activeClients = ConcurrentHashMap.newKeySet();
+        idempotencyCache = new IdempotencyCache(IDEMPOTENCY_CACHE_SIZE, IDEMPOTENCY_CACHE_TTL);
 
         databaseHandler = new DBManager(properties.getProperty("url"), properties.getProperty("user"), properties.getProperty("password"));
         userManager = new UserDBManager(databaseHandler);
-        collectionManager = new HumanDBManager(databaseHandler, userManager);
+        sequenceHandler = new DBManager(properties.getProperty("url"), properties.getProperty("user"), properties.getProperty("password"));
+        collectionManager = new HumanDBManager(databaseHandler, sequenceHandler, userManager);
         commandManager = new ServerCommandManager(this);
 
 
@@ -81,33 +161,72 @@ public class Server extends Thread implements SenderReceiver {
         } catch (CollectionException e) {
             Log.logger.error(e.getMessage());
         }
-        host(port);
+        MessageCodec.setCompressionThreshold(parseNumber(properties, "compression_threshold", MessageCodec.DEFAULT_COMPRESSION_THRESHOLD, 0));
+        transportType = TransportType.parse(properties.getProperty("transport"));
+        connections = new ConcurrentHashMap<>();
+        host(port, parseNumber(properties, "shards", DEFAULT_SHARDS, 1));
         setName("Серверный поток");
         Log.logger.trace("Сервер запущен!");
     }
 
     /**
-     * Размещение
+     * Виртуальные потоки, если их поддерживает JVM, иначе ограниченный пул
+     */
+
+    private ExecutorService newRequestHandlerThreadPool() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.logger.info("виртуальные потоки недоступны, используется пул потоков");
+            return Executors.newFixedThreadPool(Math.max(MAX_CLIENTS, Runtime.getRuntime().availableProcessors() * 2));
+        }
+    }
+
+    private int parseNumber(Properties properties, String key, int defaultValue, int min) {
+        String value = properties.getProperty(key);
+        if (value == null) return defaultValue;
+        try {
+            int number = Integer.parseInt(value.trim());
+            if (number >= min) return number;
+        } catch (NumberFormatException ignored) {
+        }
+        Log.logger.warn("некорректное значение " + key + "=" + value + ", используется " + defaultValue);
+        return defaultValue;
+    }
+
+    /**
+     * Размещение: открывает count каналов на одном порту с SO_REUSEPORT
      * @param p
+     * @param count
      * @throws ConnectionException
      */
 
-    private void host(int p) throws ConnectionException {
-        try {
-            if (channel != null && channel.isOpen()) channel.close();
-            port = p;
-            channel = DatagramChannel.open();
-            channel.configureBlocking(false);
-            channel.bind(new InetSocketAddress(port));
-            selector = Selector.open();
-            channel.register(selector, SelectionKey.OP_WRITE | SelectionKey.OP_READ);
-        } catch (AlreadyBoundException e) {
-            throw new PortAlreadyInUseException();
-        } catch (IllegalArgumentException e) {
-            throw new InvalidPortException();
-        } catch (IOException e) {
-            throw new ConnectionException("что-то пошло не так во время инициализации сервера");
+    private void host(int p, int count) throws ConnectionException {
+        port = p;
+        shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Shard shard = newShard(i);
+            try {
+                shard.host(port, count > 1);
+            } catch (UnsupportedOperationException e) {
+                Log.logger.warn("SO_REUSEPORT не поддерживается, сервер работает с одним шардом");
+                try {
+                    shard.close();
+                } catch (IOException ignored) {
+                }
+                shard = newShard(0);
+                shard.host(port, false);
+                shards.clear();
+                shards.add(shard);
+                break;
+            }
+            shards.add(shard);
         }
+        Log.logger.info("приём запросов " + transportType + " на порту " + port + ", шардов: " + shards.size());
+    }
+
+    private Shard newShard(int number) {
+        return transportType == TransportType.TCP ? new StreamShard(number) : new DatagramShard(number);
     }
 
 
@@ -116,71 +235,195 @@ public class Server extends Thread implements SenderReceiver {
     }
 
     /**
-     * Получение запроса от клиента.
+     * Разбор датаграммы от клиента.
+     * @param clientAddress
+     * @param buf буфер из пула, возвращается в пул
+     * @return запрос или null, если датаграмма не завершает сообщение
      * @throws ConnectionException
      * @throws InvalidDataException
      */
 
-    public void receive() throws ConnectionException, InvalidDataException {
-        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
-        InetSocketAddress clientAddress = null;
-        Request request = null;
-        try {
-            clientAddress = (InetSocketAddress) channel.receive(buf);
-            if (clientAddress == null) return;
-            Log.logger.trace("получен запрос от " + clientAddress);
-        } catch (ClosedChannelException e) {
-            throw new ClosedConnectionException();
-        } catch (IOException e) {
-            throw new ConnectionException("что-то пошло не так во время получения запроса");
+    private Request decode(DatagramShard shard, InetSocketAddress clientAddress, ByteBuffer buf) throws ConnectionException, InvalidDataException {
+        byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+        bufferPool.release(buf);
+        if (Fragmenter.isNack(data, data.length)) {
+            shard.resend(clientAddress, Fragmenter.getMessageId(data), Fragmenter.getNackIndices(data, data.length));
+            return null;
         }
-        try {
-            ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(buf.array()));
-            request = (Request) objectInputStream.readObject();
-        } catch (ClassNotFoundException | ClassCastException | IOException e) {
-            throw new InvalidReceivedDataException();
+        byte[] message = assembler.accept(clientAddress, data, data.length);
+        if (message == null) return null;
+        return decodeMessage(message);
+    }
+
+    /**
+     * Разбор собранного сообщения; продлевает сессию отправителя
+     * @param message
+     * @return запрос
+     * @throws InvalidDataException
+     */
+
+    private Request decodeMessage(byte[] message) throws InvalidDataException {
+        Request request = MessageCodec.decodeRequest(message, message.length);
+        if (request.getBroadcastAddress() != null) {
+            sessions.touch(request.getBroadcastAddress());
         }
-        if (request != null && request.getBroadcastAddress() != null) {
-            activeClients.add(request.getBroadcastAddress());
-            Log.logger.trace("добавлен широковещательный адрес " + request.getBroadcastAddress().toString());
+        return request;
+    }
+
+    /**
+     * Передаёт запрос на выполнение: запросы одного пользователя выполняются по порядку,
+     * запросы разных пользователей - параллельно.
+     * Сверх лимита частоты или ёмкости очереди запрос не выполняется, клиент получает BUSY.
+     * @param shard
+     * @param address
+     * @param request
+     */
+
+    private void dispatch(Shard shard, InetSocketAddress address, Request request) {
+        User user = request.getUser();
+        String login = user == null ? null : user.getLogin();
+        sources.touch(address);
+        String strand = login != null && login.equals(authenticated.get(address)) ? "user:" + login : "client:" + address;
+        if (request.getStatus() == Request.Status.HEARTBEAT) return;
+        if (request.getStatus() != Request.Status.EXIT) {
+            if (!rateLimiter.tryAcquire(strand)) {
+                rejectedRequests.incrementAndGet();
+                Log.logger.trace("превышен лимит запросов для " + strand);
+                busy(shard, address, request);
+                return;
+            }
+            if (pendingRequests.incrementAndGet() > requestQueueCapacity) {
+                pendingRequests.decrementAndGet();
+                shedRequests.incrementAndGet();
+                Log.logger.warn("очередь запросов переполнена, запрос от " + address + " отклонён");
+                busy(shard, address, request);
+                return;
+            }
+        } else {
+            pendingRequests.incrementAndGet();
         }
-        requestQueue.offer(new AbstractMap.SimpleEntry<>(clientAddress, request));
+        if (!strands.execute(strand, new RequestHandler(shard, address, request))) {
+            pendingRequests.decrementAndGet();
+            shedRequests.incrementAndGet();
+            Log.logger.warn("очередь запросов " + strand + " переполнена, запрос от " + address + " отклонён");
+            busy(shard, address, request);
+        }
+    }
 
+    /**
+     * Отказ без выполнения; ответ не запоминается, чтобы повтор с тем же номером был выполнен
+     * @param shard
+     * @param address
+     * @param request
+     */
+
+    private void busy(Shard shard, InetSocketAddress address, Request request) {
+        shard.enqueue(address, new AnswerMsg().setStatus(Response.Status.BUSY).setRequestId(request.getId()).info("[ServerBusy]"));
     }
 
-    private void broadcast(Response response, InetSocketAddress currentAddress) {
+    /**
+     * @return шард, через который отправляются сообщения клиенту вне ответа на запрос:
+     * для TCP - владелец соединения клиента
+     */
+
+    private Shard shardFor(InetSocketAddress client) {
+        Connection connection = connections.get(client);
+        if (connection != null) return connection.shard;
+        return shards.get(Math.floorMod(client.hashCode(), shards.size()));
+    }
+
+    private void broadcast(Response response, Set<InetSocketAddress> excluded) {
         Log.logger.trace("изменения в вещании");
-        for (InetSocketAddress client : activeClients) {
-            if (!currentAddress.equals(client)) responseQueue.offer(new AbstractMap.SimpleEntry<>(client, response));
+        Map<Shard, List<InetSocketAddress>> recipients = new HashMap<>();
+        for (InetSocketAddress client : sessions.getClients()) {
+            if (!excluded.contains(client)) recipients.computeIfAbsent(shardFor(client), s -> new ArrayList<>()).add(client);
         }
+        if (recipients.isEmpty()) return;
+        byte[] payload = MessageCodec.encode(response);
+        recipients.forEach((shard, clients) -> shard.enqueue(clients, payload));
     }
 
+    /**
+     * Рассылка всем клиентам; ответ сериализуется один раз на всех получателей
+     * @param response
+     */
+
     public void broadcast(Response response) {
-        Log.logger.trace("изменения в вещании");
-        for (InetSocketAddress client : activeClients) {
-            responseQueue.offer(new AbstractMap.SimpleEntry<>(client, response));
+        broadcast(response, Collections.emptySet());
+    }
+
+    /**
+     * Записывает изменение в журнал и откладывает его рассылку до конца окна
+     * или до накопления пачки изменений
+     * @param origin широковещательный адрес клиента, выполнившего изменение
+     * @param answerMsg
+     */
+
+    private void publish(InetSocketAddress origin, AnswerMsg answerMsg) {
+        if (answerMsg.getCollection() == null || answerMsg.getCollection().isEmpty()) return;
+        int size;
+        synchronized (changelog) {
+            long revision = collectionManager.getSnapshot().getRevision();
+            size = coalescer.add(changelog.record(revision, origin, answerMsg.getCollectionOperation(), answerMsg.getCollection()));
+        }
+        if (coalescer.isFull(size)) {
+            flushBroadcasts();
+        } else if (size == answerMsg.getCollection().size()) {
+            scheduler.schedule(this::flushBroadcasts, broadcastWindow, TimeUnit.MILLISECONDS);
         }
     }
 
     /**
-     * Отправляет ответ
-     * @param clientAddress
-     * @param response
-     * @throws ConnectionException
+     * Рассылает накопленные изменения одним сообщением на клиента: клиентам, не менявшим коллекцию,
+     * одна общая разница, авторам изменений - разница без их собственных изменений.
+     * Сообщение уходит, даже если разница пуста, чтобы клиент продвинул ревизию.
+     * Если между изменениями окна есть незаписанная ревизия, базой рассылки становится ревизия
+     * перед последним пропуском, и клиенты запросят синхронизацию.
      */
 
-    public void send(InetSocketAddress clientAddress, Response response) throws ConnectionException {
-        if (clientAddress == null) throw new InvalidAddressException("адрес клиента не найден");
-        try {
+    private void flushBroadcasts() {
+        synchronized (coalescer) {
+            List<BroadcastCoalescer.Change> changes = coalescer.drain();
+            if (changes.isEmpty()) return;
+            long baseRevision = changes.get(0).getRevision() - 1;
+            long revision = baseRevision;
+            for (BroadcastCoalescer.Change change : changes) {
+                if (change.getRevision() > revision + 1) baseRevision = change.getRevision() - 1;
+                revision = change.getRevision();
+            }
+            Set<InetSocketAddress> origins = new HashSet<>();
+            for (BroadcastCoalescer.Change change : changes) {
+                if (change.getOrigin() != null) origins.add(change.getOrigin());
+            }
+            broadcast(new AnswerMsg().setStatus(Response.Status.BROADCAST).setRevision(baseRevision, revision)
+                    .setChanges(BroadcastCoalescer.compact(changes, null)), origins);
+            for (InetSocketAddress origin : origins) {
+                if (!sessions.contains(origin)) continue;
+                shardFor(origin).enqueue(origin, new AnswerMsg().setStatus(Response.Status.BROADCAST).setRevision(baseRevision, revision)
+                        .setChanges(BroadcastCoalescer.compact(changes, origin)));
+            }
+        }
+    }
 
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(BUFFER_SIZE);
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
-            objectOutputStream.writeObject(response);
-            channel.send(ByteBuffer.wrap(byteArrayOutputStream.toByteArray()), clientAddress);
-            Log.logger.trace("отправил ответ на " + clientAddress);
-        } catch (IOException e) {
-            throw new ConnectionException("что-то пошло не так во время отправки ответа");
+    /**
+     * Ответ на HELLO по текущему срезу коллекции: изменения после известной клиенту ревизии
+     * до ревизии среза, если журнал содержит их все, иначе весь срез
+     * @param known
+     * @return
+     */
+
+    private AnswerMsg sync(long known) {
+        Snapshot snapshot = collectionManager.getSnapshot();
+        long revision = snapshot.getRevision();
+        List<BroadcastCoalescer.Change> changes = known == 0 ? null : changelog.since(known, revision);
+        if (changes == null) {
+            return new AnswerMsg().setStatus(Response.Status.COLLECTION).setCollectionOperation(CollectionOperation.ADD)
+                    .setCollection(snapshot.getHumans()).setRevision(0, revision);
         }
+        Log.logger.trace("разница с ревизии " + known + ": изменений " + changes.size());
+        return new AnswerMsg().setStatus(Response.Status.COLLECTION).setRevision(known, revision)
+                .setChanges(BroadcastCoalescer.compact(changes, null));
     }
 
     /**
@@ -189,25 +432,34 @@ public class Server extends Thread implements SenderReceiver {
      * @param request
      */
 
-    private void handleRequest(InetSocketAddress address, Request request) {
+    private void handleRequest(Shard shard, InetSocketAddress address, Request request) {
         AnswerMsg answerMsg = new AnswerMsg();
+        if (request.getId() != 0 && !idempotencyCache.register(address, request.getId())) {
+            Response cached = idempotencyCache.get(address, request.getId());
+            Log.logger.trace("повторный запрос #" + request.getId() + " от " + address);
+            if (cached != null) shard.enqueue(address, cached);
+            return;
+        }
         try {
 
             InetSocketAddress client = request.getBroadcastAddress();
             if (request.getStatus() == Request.Status.EXIT) {
-                activeClients.remove(client);
+                sessions.remove(client);
+                sources.remove(address);
+                authenticated.remove(address);
                 Log.logger.info("клиент " + address.toString() + " пошёл пить пиво");
                 return;
             }
             if (request.getStatus() == Request.Status.HELLO) {
-                answerMsg = new AnswerMsg().setStatus(Response.Status.COLLECTION).setCollectionOperation(CollectionOperation.ADD).setCollection(collectionManager.getCollection());
-                activeClients.add(client);
-                responseQueue.offer(new AbstractMap.SimpleEntry<>(address, answerMsg));
+                flushBroadcasts();
+                answerMsg = sync(request.getRevision());
+                sessions.touch(client);
+                reply(shard, address, request, answerMsg);
                 return;
             }
             if (request.getStatus() == Request.Status.CONNECTION_TEST) {
                 answerMsg.setStatus(Response.Status.FINE);
-                responseQueue.offer(new AbstractMap.SimpleEntry<>(address, answerMsg));
+                reply(shard, address, request, answerMsg);
                 return;
             }
             HumanBeing human = request.getHuman();
@@ -218,11 +470,18 @@ public class Server extends Thread implements SenderReceiver {
 
             request.setStatus(Request.Status.RECEIVED_BY_SERVER);
 
-            if (commandManager.getCommand(request).getType() == CommandType.SERVER_ONLY) {
+            Command command = commandManager.getCommand(request);
+            if (command.getType() == CommandType.SERVER_ONLY) {
                 throw new ServerOnlyCommandException();
             }
-            answerMsg = (AnswerMsg) commandManager.runCommand(request);
-
+            if (command.getOperation() != CollectionOperation.NONE) {
+                answerMsg = mutations.execute(() -> applyMutation(request));
+            } else {
+                answerMsg = (AnswerMsg) commandManager.runCommand(request);
+            }
+            if (answerMsg.getStatus() == Response.Status.AUTH_SUCCESS && request.getUser() != null) {
+                authenticated.put(address, request.getUser().getLogin());
+            }
 
             if (answerMsg.getStatus() == Response.Status.EXIT) {
                 close();
@@ -231,13 +490,38 @@ public class Server extends Thread implements SenderReceiver {
             answerMsg.error(e.getMessage());
             Log.logger.error(e.getMessage());
         }
+        reply(shard, address, request, answerMsg);
+
+    }
+
+    /**
+     * Выполняется в потоке очереди изменений: изменение попадает в журнал
+     * в том же порядке, в котором применено к коллекции
+     * @param request
+     * @return
+     */
 
+    private AnswerMsg applyMutation(Request request) {
+        AnswerMsg answerMsg = (AnswerMsg) commandManager.runCommand(request);
         if (answerMsg.getCollectionOperation() != CollectionOperation.NONE && answerMsg.getStatus() == Response.Status.FINE) {
             answerMsg.setStatus(Response.Status.BROADCAST);
-            broadcast(answerMsg, request.getBroadcastAddress());
+            publish(request.getBroadcastAddress(), answerMsg);
         }
-        responseQueue.offer(new AbstractMap.SimpleEntry<>(address, answerMsg));
+        return answerMsg;
+    }
 
+    /**
+     * Ставит ответ в очередь шарда, принявшего запрос, и запоминает его для повторных запросов
+     * @param shard
+     * @param address
+     * @param request
+     * @param answerMsg
+     */
+
+    private void reply(Shard shard, InetSocketAddress address, Request request, AnswerMsg answerMsg) {
+        answerMsg.setRequestId(request.getId());
+        if (request.getId() != 0) idempotencyCache.complete(address, request.getId(), answerMsg);
+        shard.enqueue(address, answerMsg);
     }
 
     /**
@@ -245,29 +529,13 @@ public class Server extends Thread implements SenderReceiver {
      */
 
     public void run() {
-        while (running) {
+        for (Shard shard : shards) {
+            shard.start();
+        }
+        for (Shard shard : shards) {
             try {
-                selector.select();
-            } catch (IOException e) {
-                continue;
-            }
-            Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
-            while (selectedKeys.hasNext()) {
-                SelectionKey key = selectedKeys.next();
-                selectedKeys.remove();
-                if (!key.isValid()) {
-                    continue;
-                }
-                if (key.isReadable()) {
-                    receiverThreadPool.submit(new Receiver());
-                    continue;
-                }
-                if (key.isWritable() && responseQueue.size() > 0) {
-                    senderThreadPool.submit(new Sender(responseQueue.poll()));
-                }
-            }
-            if (requestQueue.size() > 0) {
-                requestHandlerThreadPool.submit(new RequestHandler(requestQueue.poll()));
+                shard.join();
+            } catch (InterruptedException ignored) {
             }
         }
     }
@@ -286,9 +554,10 @@ public class Server extends Thread implements SenderReceiver {
 
     public void close() {
         try {
+            flushBroadcasts();
             broadcast(new AnswerMsg().setStatus(Response.Status.EXIT));
 
-            while (responseQueue.size() > 0) {
+            while (shards.stream().anyMatch(Shard::hasPendingResponses)) {
 
                 try {
                     Thread.sleep(1000);
@@ -297,16 +566,80 @@ public class Server extends Thread implements SenderReceiver {
                 }
             }
             running = false;
-            receiverThreadPool.shutdown();
             requestHandlerThreadPool.shutdown();
+            mutations.close();
+            scheduler.shutdown();
             senderThreadPool.shutdown();
             databaseHandler.closeConnection();
-            channel.close();
+            sequenceHandler.closeConnection();
+            for (Shard shard : shards) {
+                shard.close();
+            }
         } catch (IOException e) {
             Log.logger.error("не удается закрыть канал");
         }
     }
 
+    /**
+     * Удаляет сессии клиентов, которые перестали присылать запросы и heartbeat
+     */
+
+    private void expireSessions() {
+        sources.expire().forEach(authenticated::remove);
+        List<InetSocketAddress> expired = sessions.expire();
+        if (!expired.isEmpty()) {
+            Log.logger.info("истекли сессии: " + expired + ", активных: " + sessions.size());
+        }
+    }
+
+    /**
+     * @return сводка нагрузки: глубина очередей, число отказов и сессий
+     */
+
+    public String getLoadInfo() {
+        int responses = 0;
+        for (Shard shard : shards) {
+            responses += shard.responseQueue.size();
+        }
+        return "запросов в очереди: " + pendingRequests.get() + "/" + requestQueueCapacity
+                + ", ответов в очереди: " + responses + "/" + responseQueueCapacity * shards.size()
+                + ", отклонено по лимиту: " + rejectedRequests.get()
+                + ", сброшено запросов: " + shedRequests.get()
+                + ", сброшено ответов: " + shedResponses.get()
+                + ", сброшено датаграмм: " + droppedDatagrams.get()
+                + ", активных сессий: " + sessions.size()
+                + ", истекло сессий: " + sessions.getExpired()
+                + ", изменений в очереди: " + mutations.getQueued()
+                + ", применено изменений: " + mutations.getApplied() + " за " + mutations.getBatches() + " пачек"
+                + ", сжатие: " + MessageCodec.getCompressionStats()
+                + ", общие строки: " + Interner.STRINGS
+                + ", общие машины: " + Car.getInterner();
+    }
+
+    public int getPendingRequests() {
+        return pendingRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    public long getShedRequests() {
+        return shedRequests.get();
+    }
+
+    public long getShedResponses() {
+        return shedResponses.get();
+    }
+
+    public MutationSequencer getMutations() {
+        return mutations;
+    }
+
+    public SessionTable getSessions() {
+        return sessions;
+    }
+
     public HumanManager getCollectionManager() {
         return collectionManager;
     }
@@ -323,42 +656,515 @@ public class Server extends Thread implements SenderReceiver {
         hostUser = usr;
     }
 
-    private class Receiver implements Runnable {
+    /**
+     * Канал на общем порту со своим селектором, потоком приёма и очередью ответов.
+     */
+
+    private abstract class Shard extends Thread {
+        protected final BlockingQueue<Map.Entry<List<InetSocketAddress>, byte[]>> responseQueue;
+        protected Selector selector;
+
+        public Shard(int number) {
+            responseQueue = new LinkedBlockingQueue<>(responseQueueCapacity);
+            setDaemon(true);
+            setName("Шард " + number);
+        }
+
+        /**
+         * Размещение
+         * @param port
+         * @param reusePort
+         * @throws ConnectionException
+         */
+
+        public abstract void host(int port, boolean reusePort) throws ConnectionException;
+
+        /**
+         * Обработка готового ключа селектора
+         * @param key
+         */
+
+        protected abstract void handle(SelectionKey key);
+
+        /**
+         * Передаёт накопленные ответы на отправку; вызывается из потока шарда.
+         */
+
+        protected abstract void flush();
+
+        public abstract void close() throws IOException;
+
+        /**
+         * Сериализует ответ одному клиенту и ставит его в очередь
+         * @param address
+         * @param response
+         */
+
+        public void enqueue(InetSocketAddress address, Response response) {
+            enqueue(Collections.singletonList(address), MessageCodec.encode(response));
+        }
+
+        /**
+         * Ставит сериализованный ответ в очередь и будит поток шарда.
+         * Если очередь заполнена, ответ сбрасывается.
+         * @param addresses получатели одного и того же ответа
+         * @param payload
+         */
+
+        public void enqueue(List<InetSocketAddress> addresses, byte[] payload) {
+            if (!responseQueue.offer(new AbstractMap.SimpleEntry<>(addresses, payload))) {
+                shedResponses.incrementAndGet();
+                Log.logger.warn(getName() + ": очередь ответов переполнена, ответ для " + addresses + " сброшен");
+            }
+            selector.wakeup();
+        }
+
+        public boolean hasPendingResponses() {
+            return !responseQueue.isEmpty();
+        }
+
         public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException | ClosedSelectorException e) {
+                    continue;
+                }
+                if (!responseQueue.isEmpty()) flush();
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+                    if (key.isValid()) handle(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Шард UDP: датаграммы с фрагментацией, ответы отправляются пулом отправителей.
+     */
+
+    private class DatagramShard extends Shard {
+        private final ArrayDeque<Map.Entry<InetSocketAddress, byte[]>> backlog = new ArrayDeque<>();
+        private DatagramChannel channel;
+        private SelectionKey key;
+        private long backlogBytes;
+
+        public DatagramShard(int number) {
+            super(number);
+        }
+
+        @Override
+        public void host(int port, boolean reusePort) throws ConnectionException {
+            try {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                if (reusePort) channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(new InetSocketAddress(port));
+                selector = Selector.open();
+                key = channel.register(selector, SelectionKey.OP_READ);
+            } catch (AlreadyBoundException | BindException e) {
+                throw new PortAlreadyInUseException();
+            } catch (IllegalArgumentException e) {
+                throw new InvalidPortException();
+            } catch (IOException e) {
+                throw new ConnectionException("что-то пошло не так во время инициализации сервера");
+            }
+        }
+
+        @Override
+        protected void handle(SelectionKey key) {
+            if (key.isWritable()) drainBacklog();
+            if (!key.isReadable()) return;
             try {
                 receive();
-            } catch (ConnectionException | InvalidDataException e) {
+            } catch (ConnectionException e) {
+                Log.logger.error(e.getMessage());
+            }
+        }
+
+        /**
+         * Вычитывает все пришедшие датаграммы в буферы из пула и передаёт
+         * разобранные запросы обработчикам в порядке поступления.
+         * @throws ConnectionException
+         */
+
+        private void receive() throws ConnectionException {
+            while (true) {
+                ByteBuffer buf = bufferPool.acquire();
+                InetSocketAddress clientAddress;
+                try {
+                    clientAddress = (InetSocketAddress) channel.receive(buf);
+                } catch (ClosedChannelException e) {
+                    bufferPool.release(buf);
+                    throw new ClosedConnectionException();
+                } catch (IOException e) {
+                    bufferPool.release(buf);
+                    throw new ConnectionException("что-то пошло не так во время получения запроса");
+                }
+                if (clientAddress == null) {
+                    bufferPool.release(buf);
+                    return;
+                }
+                Log.logger.trace(getName() + ": получен запрос от " + clientAddress);
+                buf.flip();
+                try {
+                    Request request = decode(this, clientAddress, buf);
+                    if (request != null) dispatch(this, clientAddress, request);
+                } catch (InvalidDataException e) {
+                    Log.logger.error(e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Передаёт накопленные ответы отправителям.
+         */
+
+        @Override
+        protected void flush() {
+            Map.Entry<List<InetSocketAddress>, byte[]> response;
+            while ((response = responseQueue.poll()) != null) {
+                try {
+                    senderThreadPool.submit(new Sender(this, response));
+                } catch (RejectedExecutionException e) {
+                    shedResponses.incrementAndGet();
+                    Log.logger.warn(getName() + ": отправители не успевают, ответ для " + response.getKey() + " сброшен");
+                }
+            }
+        }
+
+        /**
+         * Отправляет один и тот же ответ всем получателям: фрагменты нарезаются один раз
+         * @param clientAddresses
+         * @param payload сериализованный ответ
+         * @throws ConnectionException
+         */
+
+        public void send(List<InetSocketAddress> clientAddresses, byte[] payload) throws ConnectionException {
+            int messageId = nextMessageId.incrementAndGet();
+            List<byte[]> fragments = Fragmenter.split(messageId, payload);
+            if (fragments.size() > 1) sentMessages.put(messageId, fragments, clientAddresses);
+            for (InetSocketAddress clientAddress : clientAddresses) {
+                if (clientAddress == null) throw new InvalidAddressException("адрес клиента не найден");
+                try {
+                    for (byte[] fragment : fragments) {
+                        transmit(fragment, clientAddress);
+                    }
+                    Log.logger.trace(getName() + ": отправил ответ на " + clientAddress);
+                } catch (IOException e) {
+                    Log.logger.error("что-то пошло не так во время отправки ответа на " + clientAddress);
+                }
+            }
+        }
+
+        /**
+         * Повторно отправляет потерянные фрагменты ответа, только его получателю
+         * и не больше MAX_RESENT_FRAGMENTS за один NACK: остальные клиент запросит следующим
+         * @param clientAddress
+         * @param messageId
+         * @param indices
+         * @throws ConnectionException
+         */
+
+        public void resend(InetSocketAddress clientAddress, int messageId, List<Integer> indices) throws ConnectionException {
+            List<byte[]> fragments = sentMessages.get(messageId, clientAddress);
+            if (fragments == null) {
+                Log.logger.warn("ответа #" + messageId + " для " + clientAddress + " нет в кэше");
+                return;
+            }
+            try {
+                int sent = 0;
+                for (Integer index : indices) {
+                    if (sent == MAX_RESENT_FRAGMENTS) break;
+                    if (index < 0 || index >= fragments.size()) continue;
+                    transmit(fragments.get(index), clientAddress);
+                    sent++;
+                }
+                Log.logger.trace("повторно отправлено фрагментов ответа #" + messageId + ": " + sent);
+            } catch (IOException e) {
+                throw new ConnectionException("что-то пошло не так во время повторной отправки ответа");
+            }
+        }
+
+        /**
+         * Отправляет датаграмму, а если буфер сокета заполнен, откладывает её до готовности канала к записи.
+         * Отложенные датаграммы уходят по порядку; сверх SEND_BACKLOG_BYTES датаграмма сбрасывается,
+         * и потерянный фрагмент клиент запросит повторно.
+         * @param datagram
+         * @param address
+         * @throws IOException
+         */
+
+        private void transmit(byte[] datagram, InetSocketAddress address) throws IOException {
+            synchronized (backlog) {
+                if (backlog.isEmpty() && channel.send(ByteBuffer.wrap(datagram), address) > 0) return;
+                if (backlogBytes + datagram.length > SEND_BACKLOG_BYTES) {
+                    droppedDatagrams.incrementAndGet();
+                    Log.logger.trace(getName() + ": буфер отправки переполнен, датаграмма для " + address + " сброшена");
+                    return;
+                }
+                backlog.addLast(new AbstractMap.SimpleEntry<>(address, datagram));
+                backlogBytes += datagram.length;
+                if (backlog.size() == 1) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    selector.wakeup();
+                }
+            }
+        }
+
+        /**
+         * Досылает отложенные датаграммы, пока сокет их принимает; вызывается из потока шарда.
+         */
+
+        private void drainBacklog() {
+            synchronized (backlog) {
+                while (!backlog.isEmpty()) {
+                    Map.Entry<InetSocketAddress, byte[]> datagram = backlog.peekFirst();
+                    try {
+                        if (channel.send(ByteBuffer.wrap(datagram.getValue()), datagram.getKey()) == 0) return;
+                    } catch (IOException e) {
+                        Log.logger.error("что-то пошло не так во время отправки ответа на " + datagram.getKey());
+                    }
+                    backlog.pollFirst();
+                    backlogBytes -= datagram.getValue().length;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        @Override
+        public boolean hasPendingResponses() {
+            if (super.hasPendingResponses()) return true;
+            synchronized (backlog) {
+                return !backlog.isEmpty();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) channel.close();
+            if (selector != null) selector.wakeup();
+        }
+    }
+
+    /**
+     * Шард TCP: неблокирующие соединения на селекторе шарда, сообщения передаются кадрами с длиной.
+     * Запись выполняет поток шарда, незаписанный остаток ждёт готовности соединения к записи.
+     * Сверх лимита открытых соединений новые соединения сразу закрываются.
+     */
+
+    private class StreamShard extends Shard {
+        private ServerSocketChannel serverChannel;
+        private final AtomicInteger open = new AtomicInteger();
+
+        public StreamShard(int number) {
+            super(number);
+        }
+
+        @Override
+        public void host(int port, boolean reusePort) throws ConnectionException {
+            try {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.configureBlocking(false);
+                if (reusePort) serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                serverChannel.bind(new InetSocketAddress(port));
+                selector = Selector.open();
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (AlreadyBoundException | BindException e) {
+                throw new PortAlreadyInUseException();
+            } catch (IllegalArgumentException e) {
+                throw new InvalidPortException();
+            } catch (IOException e) {
+                throw new ConnectionException("что-то пошло не так во время инициализации сервера");
+            }
+        }
+
+        @Override
+        protected void handle(SelectionKey key) {
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) read(connection);
+            if (key.isValid() && key.isWritable()) write(connection);
+        }
+
+        private void accept() {
+            try {
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    if (open.get() >= shardConnections) {
+                        Log.logger.warn(getName() + ": достигнут лимит соединений, " + channel.getRemoteAddress() + " отклонён");
+                        channel.close();
+                        continue;
+                    }
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connections.put(connection.address, connection);
+                    open.incrementAndGet();
+                    Log.logger.trace(getName() + ": подключился " + connection.address);
+                }
+            } catch (IOException e) {
+                Log.logger.error("что-то пошло не так во время подключения клиента");
+            }
+        }
+
+        private void read(Connection connection) {
+            ByteBuffer buf = bufferPool.acquire();
+            try {
+                if (connection.channel.read(buf) < 0) {
+                    disconnect(connection);
+                    return;
+                }
+                buf.flip();
+                for (byte[] message : connection.reader.read(buf)) {
+                    dispatch(this, connection.address, decodeMessage(message));
+                }
+            } catch (IOException e) {
+                disconnect(connection);
+            } catch (InvalidDataException e) {
                 Log.logger.error(e.getMessage());
+                disconnect(connection);
+            } finally {
+                bufferPool.release(buf);
+            }
+        }
+
+        private void write(Connection connection) {
+            try {
+                while (!connection.outbound.isEmpty()) {
+                    ByteBuffer frame = connection.outbound.peek();
+                    connection.channel.write(frame);
+                    if (frame.hasRemaining()) return;
+                    connection.outbound.poll();
+                }
+                connection.key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                disconnect(connection);
+            }
+        }
+
+        /**
+         * Раскладывает ответы по соединениям получателей; один кадр используется для всех получателей.
+         */
+
+        @Override
+        protected void flush() {
+            Map.Entry<List<InetSocketAddress>, byte[]> response;
+            while ((response = responseQueue.poll()) != null) {
+                ByteBuffer frame = ByteBuffer.wrap(FrameReader.frame(response.getValue()));
+                for (InetSocketAddress address : response.getKey()) {
+                    Connection connection = connections.get(address);
+                    if (connection == null || connection.shard != this) {
+                        Log.logger.trace(getName() + ": нет соединения с " + address);
+                        continue;
+                    }
+                    if (connection.outbound.size() >= responseQueueCapacity) {
+                        shedResponses.incrementAndGet();
+                        Log.logger.warn(getName() + ": клиент " + address + " не успевает читать, ответ сброшен");
+                        continue;
+                    }
+                    connection.outbound.add(frame.duplicate());
+                    write(connection);
+                    if (!connection.outbound.isEmpty() && connection.key.isValid()) {
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
             }
         }
+
+        private void disconnect(Connection connection) {
+            if (connections.remove(connection.address, connection)) open.decrementAndGet();
+            sessions.remove(connection.address);
+            sources.remove(connection.address);
+            authenticated.remove(connection.address);
+            connection.key.cancel();
+            try {
+                connection.channel.close();
+            } catch (IOException ignored) {
+            }
+            Log.logger.trace(getName() + ": отключился " + connection.address);
+        }
+
+        @Override
+        public boolean hasPendingResponses() {
+            if (super.hasPendingResponses()) return true;
+            for (Connection connection : connections.values()) {
+                if (connection.shard == this && !connection.outbound.isEmpty()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Connection connection : connections.values()) {
+                if (connection.shard == this) connection.channel.close();
+            }
+            if (serverChannel != null) serverChannel.close();
+            if (selector != null) selector.wakeup();
+        }
+    }
+
+    /**
+     * TCP-соединение клиента; всё, кроме канала, используется только потоком своего шарда.
+     */
+
+    private static class Connection {
+        private final Shard shard;
+        private final SocketChannel channel;
+        private final InetSocketAddress address;
+        private final FrameReader reader;
+        private final Queue<ByteBuffer> outbound;
+        private SelectionKey key;
+
+        Connection(Shard shard, SocketChannel channel) throws IOException {
+            this.shard = shard;
+            this.channel = channel;
+            address = (InetSocketAddress) channel.getRemoteAddress();
+            reader = new FrameReader();
+            outbound = new ArrayDeque<>();
+        }
     }
 
     private class RequestHandler implements Runnable {
-        private final Request request;
+        private final Shard shard;
         private final InetSocketAddress address;
+        private final Request request;
 
-        public RequestHandler(Map.Entry<InetSocketAddress, Request> requestEntry) {
-            request = requestEntry.getValue();
-            address = requestEntry.getKey();
+        public RequestHandler(Shard s, InetSocketAddress clientAddress, Request req) {
+            shard = s;
+            address = clientAddress;
+            request = req;
         }
 
         public void run() {
-            handleRequest(address, request);
+            try {
+                handleRequest(shard, address, request);
+            } finally {
+                pendingRequests.decrementAndGet();
+            }
         }
     }
 
     private class Sender implements Runnable {
-        private final Response response;
-        private final InetSocketAddress address;
+        private final DatagramShard shard;
+        private final byte[] payload;
+        private final List<InetSocketAddress> addresses;
 
-        public Sender(Map.Entry<InetSocketAddress, Response> responseEntry) {
-            response = responseEntry.getValue();
-            address = responseEntry.getKey();
+        public Sender(DatagramShard s, Map.Entry<List<InetSocketAddress>, byte[]> responseEntry) {
+            shard = s;
+            payload = responseEntry.getValue();
+            addresses = responseEntry.getKey();
         }
 
         public void run() {
             try {
-                send(address, response);
+                shard.send(addresses, payload);
             } catch (ConnectionException e) {
                 Log.logger.error(e.getMessage());
             }
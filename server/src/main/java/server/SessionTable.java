@@ -0,0 +1,84 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Таблица сессий клиентов: широковещательный адрес и время последнего обращения.
+ * Клиенты, не подававшие признаков жизни дольше таймаута, удаляются.
+ */
+
+public class SessionTable {
+    private final long timeout;
+    private final Map<InetSocketAddress, Long> lastSeen;
+    private final AtomicLong expired;
+
+    /**
+     * @param timeout время бездействия в миллисекундах, после которого сессия истекает
+     */
+
+    public SessionTable(long timeout) {
+        this.timeout = timeout;
+        lastSeen = new ConcurrentHashMap<>();
+        expired = new AtomicLong();
+    }
+
+    /**
+     * Открывает сессию или продлевает существующую
+     */
+
+    public void touch(InetSocketAddress client) {
+        lastSeen.put(client, System.currentTimeMillis());
+    }
+
+    public void remove(InetSocketAddress client) {
+        lastSeen.remove(client);
+    }
+
+    public boolean contains(InetSocketAddress client) {
+        return lastSeen.containsKey(client);
+    }
+
+    /**
+     * @return адреса клиентов с живыми сессиями
+     */
+
+    public Set<InetSocketAddress> getClients() {
+        return lastSeen.keySet();
+    }
+
+    public int size() {
+        return lastSeen.size();
+    }
+
+    /**
+     * Удаляет истёкшие сессии
+     *
+     * @return адреса удалённых клиентов
+     */
+
+    public List<InetSocketAddress> expire() {
+        long deadline = System.currentTimeMillis() - timeout;
+        List<InetSocketAddress> removed = new ArrayList<>();
+        for (Map.Entry<InetSocketAddress, Long> session : lastSeen.entrySet()) {
+            if (session.getValue() < deadline && lastSeen.remove(session.getKey(), session.getValue())) {
+                removed.add(session.getKey());
+            }
+        }
+        expired.addAndGet(removed.size());
+        return removed;
+    }
+
+    /**
+     * @return сколько сессий истекло за время работы сервера
+     */
+
+    public long getExpired() {
+        return expired.get();
+    }
+}
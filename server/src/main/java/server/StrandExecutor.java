@@ -0,0 +1,69 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Выполняет задачи с одинаковым ключом строго по очереди в порядке поступления,
+ * задачи с разными ключами - параллельно на общем исполнителе.
+ * Очередь каждого ключа ограничена: лишние задачи не принимаются.
+ */
+
+public class StrandExecutor {
+    private final Executor executor;
+    private final int capacity;
+    private final Map<String, Strand> strands;
+
+    /**
+     * @param capacity сколько задач одного ключа может ждать и выполняться одновременно
+     */
+
+    public StrandExecutor(Executor executor, int capacity) {
+        this.executor = executor;
+        this.capacity = capacity;
+        strands = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return false, если очередь ключа заполнена и задача не принята
+     */
+
+    public boolean execute(String key, Runnable task) {
+        boolean[] accepted = {false};
+        strands.compute(key, (k, strand) -> {
+            if (strand == null) strand = new Strand();
+            if (strand.pending >= capacity) return strand;
+            strand.pending++;
+            strand.tail = strand.tail.handleAsync((result, error) -> {
+                try {
+                    task.run();
+                } finally {
+                    done(k);
+                }
+                return null;
+            }, executor);
+            accepted[0] = true;
+            return strand;
+        });
+        return accepted[0];
+    }
+
+    private void done(String key) {
+        strands.computeIfPresent(key, (k, strand) -> --strand.pending == 0 ? null : strand);
+    }
+
+    /**
+     * @return число ключей, у которых есть невыполненные задачи
+     */
+
+    public int size() {
+        return strands.size();
+    }
+
+    private static class Strand {
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private int pending;
+    }
+}